@@ -0,0 +1,22 @@
+import com.google.inject.AbstractModule;
+import jpa.DeviceLogMaintenance;
+import metrics.HikariMetrics;
+
+/**
+ * This class is a Guice module that tells Guice how to bind several
+ * different types. This Guice module is created when the Play
+ * application starts.
+ *
+ * Play will automatically use any class called `Module` that is in
+ * the root package.
+ */
+public class Module extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        // schedule the maintenance of device logs when the application starts
+        bind(DeviceLogMaintenance.class).asEagerSingleton();
+        // track the connection pool from the start, so that /metrics covers all connections
+        bind(HikariMetrics.class).asEagerSingleton();
+    }
+}
@@ -0,0 +1,48 @@
+package controllers;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import jpa.models.Customer;
+import play.data.FormFactory;
+import play.http.HttpErrorHandler;
+
+import javax.inject.Inject;
+import java.io.IOException;
+
+/**
+ * Parses the request body of /add/customer into a customer
+ */
+public class CustomerBodyParser extends EntityBodyParser<Customer> {
+
+    @Inject
+    public CustomerBodyParser(Config config, HttpErrorHandler errorHandler, FormFactory formFactory, ObjectMapper mapper) {
+        super(Customer.class, config, errorHandler, formFactory, mapper);
+    }
+
+    @Override
+    protected Customer read(JsonParser parser) throws IOException {
+        Customer customer = new Customer();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    customer.id = readLong(parser);
+                    break;
+                case "name":
+                    customer.name = readText(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return customer;
+    }
+
+    @Override
+    protected void validate(Customer customer) {
+        require(customer.name, "name");
+    }
+}
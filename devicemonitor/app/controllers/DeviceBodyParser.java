@@ -0,0 +1,73 @@
+package controllers;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import jpa.models.Device;
+import play.data.FormFactory;
+import play.http.HttpErrorHandler;
+
+import javax.inject.Inject;
+import java.io.IOException;
+
+/**
+ * Parses the request body of /add/device into a device
+ */
+public class DeviceBodyParser extends EntityBodyParser<Device> {
+
+    @Inject
+    public DeviceBodyParser(Config config, HttpErrorHandler errorHandler, FormFactory formFactory, ObjectMapper mapper) {
+        super(Device.class, config, errorHandler, formFactory, mapper);
+    }
+
+    @Override
+    protected Device read(JsonParser parser) throws IOException {
+        return readDevice(parser);
+    }
+
+    @Override
+    protected void validate(Device device) {
+        require(device.customerId, "customerId");
+        require(device.description, "description");
+        if (device.updateAt == null) {
+            device.updateAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Read the fields of a device, the parser is at the start of the json object
+     * and is left at its end
+     *
+     * @param parser json parser
+     * @return the device
+     * @throws IOException if the json is malformed
+     */
+    static Device readDevice(JsonParser parser) throws IOException {
+        Device device = new Device();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    device.id = readLong(parser);
+                    break;
+                case "customerId":
+                    device.customerId = readLong(parser);
+                    break;
+                case "description":
+                    device.description = readText(parser);
+                    break;
+                case "updateAt":
+                    device.updateAt = readLong(parser);
+                    break;
+                case "status":
+                    device.status = readText(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return device;
+    }
+}
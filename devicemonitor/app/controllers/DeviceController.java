@@ -1,18 +1,32 @@
 package controllers;
 
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import jpa.models.Customer;
 import jpa.models.Device;
 import jpa.models.DeviceLog;
+import jpa.DeviceFilter;
+import jpa.DeviceLogRange;
 import jpa.DeviceRepository;
-import play.data.FormFactory;
-import play.libs.concurrent.HttpExecutionContext;
+import jpa.FleetSummary;
+import jpa.IngestRejectedException;
+import play.libs.EventSource;
 import play.mvc.*;
 
 import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
-import static play.libs.Json.toJson;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 /**
  * This controller contains actions to handle HTTP requests
@@ -22,15 +36,31 @@ import static play.libs.Json.toJson;
  */
 public class DeviceController extends Controller {
 
-    private final FormFactory formFactory;
+    // response header that carries the cursor of the next page
+    static final String NEXT_AFTER = "X-Next-After";
+
+    // response header that carries the update time to sync the devices from next
+    static final String NEXT_SINCE = "X-Next-Since";
+
+    static final int MAX_PAGE_SIZE = 1000;
+
+    // the next sync overlaps the current one, to cover the transactions still in flight,
+    // the replication lag and the clock skew between app nodes
+    private static final long SINCE_OVERLAP_MILLIS = 10 * 1000L;
+
+    private static final long ROLLUP_WINDOW_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // a comment line sent on an idle event stream, so that proxies keep the connection open
+    private static final Duration EVENTS_KEEP_ALIVE = Duration.ofSeconds(15);
+    private static final ByteString KEEP_ALIVE_COMMENT = ByteString.fromString(":\n\n");
+
     private final DeviceRepository deviceRepository;
-    private final HttpExecutionContext execCxt;
+    private final JsonWriters jsonWriters;
 
     @Inject
-    public DeviceController(FormFactory formFactory, DeviceRepository deviceRepository, HttpExecutionContext execCxt) {
-        this.formFactory = formFactory;
+    public DeviceController(DeviceRepository deviceRepository, JsonWriters jsonWriters) {
         this.deviceRepository = deviceRepository;
-        this.execCxt = execCxt;
+        this.jsonWriters = jsonWriters;
     }
 
     /**
@@ -49,28 +79,42 @@ public class DeviceController extends Controller {
      * this method will be called when the application receives a
      * <code>POST</code> request with a path of <code>/add/customer</code>.
      *
-     * @param request http request that contains the customer object
+     * @param request http request that contains the customer object, parsed by CustomerBodyParser
      * @return CompletionStage<Result> contains the added customer
      */
+    @BodyParser.Of(CustomerBodyParser.class)
     public CompletionStage<Result> addCustomer(final Http.Request request) {
-        Customer customer = formFactory.form(Customer.class).bindFromRequest(request).get();
+        Customer customer = request.body().as(Customer.class);
         return deviceRepository
                 .addCustomer(customer)
-                .thenApplyAsync(customerAdded -> ok(toJson(customerAdded)), execCxt.current());
+                .thenApply(customerAdded -> JsonWriters.ok(jsonWriters.customer, customerAdded));
     }
 
     /**
-     * An action that retrieves all customer from data storage.
+     * An action that retrieves existing customers from data storage, ordered by id.
+     * Without a limit, all customers after the cursor are sent in chunks. With a
+     * limit, one page is returned, and the <code>X-Next-After</code> header
+     * carries the cursor of the next page if there can be more customers.
      * The configuration in the <code>routes</code> file means that
      * this method will be called when the application receives a
      * <code>GET</code> request with a path of <code>/customers</code>.
      *
+     * @param limit max number of customers in the page
+     * @param after id of the customer to start after
      * @return CompletionStage<Result> contains the list of existing customers
      */
-    public CompletionStage<Result> getCustomers() {
+    public CompletionStage<Result> getCustomers(Optional<Integer> limit, Optional<Long> after) {
+        if (!limit.isPresent()) {
+            return completedFuture(ok().chunked(jsonArray(deviceRepository.listCustomers(after.orElse(null)), jsonWriters.customer)).as(Http.MimeTypes.JSON));
+        }
+        if (limit.get() < 1) {
+            return completedFuture(badRequest("limit should be a positive number"));
+        }
+
+        int pageSize = Math.min(limit.get(), MAX_PAGE_SIZE);
         return deviceRepository
-                .listCustomers()
-                .thenApplyAsync(customerStream -> ok(toJson(customerStream.collect(Collectors.toList()))), execCxt.current());
+                .listCustomers(after.orElse(null), pageSize)
+                .thenApply(customers -> page(customers, pageSize, customer -> customer.id, jsonWriters.customers));
     }
 
     /**
@@ -79,28 +123,124 @@ public class DeviceController extends Controller {
      * this method will be called when the application receives a
      * <code>POST</code> request with a path of <code>/add/device</code>.
      *
-     * @param request http request that contains the device object
+     * @param request http request that contains the device object, parsed by DeviceBodyParser
      * @return CompletionStage<Result> contains the added device
      */
+    @BodyParser.Of(DeviceBodyParser.class)
     public CompletionStage<Result> addDevice(final Http.Request request) {
-        Device device = formFactory.form(Device.class).bindFromRequest(request).get();
+        Device device = request.body().as(Device.class);
         return deviceRepository
                 .addDevice(device)
-                .thenApplyAsync(deviceAdded -> ok(toJson(deviceAdded)), execCxt.current());
+                .thenApply(deviceAdded -> JsonWriters.ok(jsonWriters.device, deviceAdded));
+    }
+
+    /**
+     * An action that imports devices in bulk into the data storage, from NDJSON
+     * or CSV. The devices are added by DeviceImportBodyParser while the body is
+     * streamed in, in batches of one transaction each.
+     * The configuration in the <code>routes</code> file means that
+     * this method will be called when the application receives a
+     * <code>POST</code> request with a path of <code>/add/devices</code>.
+     *
+     * @param request http request that contains the devices, one per line
+     * @return Result contains the number of imported and failed rows, and the errors of the failed rows
+     */
+    @BodyParser.Of(DeviceImportBodyParser.class)
+    public Result importDevices(final Http.Request request) {
+        DeviceImportReport report = request.body().as(DeviceImportReport.class);
+        return JsonWriters.ok(jsonWriters.importReport, report);
     }
 
     /**
-     * An action that retrieves all valid devices from data storage.
+     * An action that retrieves valid devices from data storage, ordered by id,
+     * optionally filtered by status and customer. Without a limit, all devices
+     * after the cursor are sent in chunks. With a limit, one page is returned,
+     * and the <code>X-Next-After</code> header carries the cursor of the next
+     * page if there can be more devices.
+     * With <code>since</code>, only the devices updated after that time are
+     * returned, including the removed ones, so that a client can sync its list.
+     * The <code>X-Next-Since</code> header carries the time to sync from next.
+     * The response carries the fleet version and the query as its <code>ETag</code>,
+     * and a request with a matching <code>If-None-Match</code> gets a 304 Not Modified
+     * without reading the devices. Without a fleet version, i.e. on several nodes,
+     * there is neither.
      * The configuration in the <code>routes</code> file means that
      * this method will be called when the application receives a
      * <code>GET</code> request with a path of <code>/devices</code>.
      *
-     * @return CompletionStage<Result> contains the list of all valid and existing devices
+     * @param request http request that may carry If-None-Match
+     * @param limit max number of devices in the page
+     * @param after id of the device to start after
+     * @param status status the devices should have
+     * @param customerId id of the customer the devices should belong to
+     * @param since update time in millis to return the devices changed after
+     * @return CompletionStage<Result> contains the list of valid and existing devices
      */
-    public CompletionStage<Result> getDevices() {
+    public CompletionStage<Result> getDevices(final Http.Request request, Optional<Integer> limit, Optional<Long> after,
+                                              Optional<String> status, Optional<Long> customerId, Optional<Long> since) {
+        // the version is read before the devices, so that a change committed meanwhile moves it on
+        OptionalLong version = deviceRepository.fleetVersion();
+        String etag = version.isPresent()
+                ? "\"" + version.getAsLong() + "-" + Integer.toHexString(Arrays.asList(limit, after, status, customerId, since).hashCode()) + "\""
+                : null;
+        if (etag != null && notModified(request, etag)) {
+            return completedFuture(status(NOT_MODIFIED).withHeader(Http.HeaderNames.ETAG, etag));
+        }
+        String nextSince = String.valueOf(System.currentTimeMillis() - SINCE_OVERLAP_MILLIS);
+
+        DeviceFilter filter = new DeviceFilter(status.orElse(null), customerId.orElse(null), since.orElse(null));
+        if (!limit.isPresent()) {
+            return completedFuture(tagged(ok().chunked(jsonArray(deviceRepository.listDevices(filter, after.orElse(null)), jsonWriters.device))
+                    .as(Http.MimeTypes.JSON), etag)
+                    .withHeader(NEXT_SINCE, nextSince));
+        }
+        if (limit.get() < 1) {
+            return completedFuture(badRequest("limit should be a positive number"));
+        }
+
+        int pageSize = Math.min(limit.get(), MAX_PAGE_SIZE);
         return deviceRepository
-                .listDevices()
-                .thenApplyAsync(deviceStream -> ok(toJson(deviceStream.collect(Collectors.toList()))), execCxt.current());
+                .listDevices(filter, after.orElse(null), pageSize)
+                .thenApply(devices -> tagged(page(devices, pageSize, device -> device.id, jsonWriters.devices), etag)
+                        .withHeader(NEXT_SINCE, nextSince));
+    }
+
+    /**
+     * An action that pushes the status changes of the devices as server-sent events,
+     * each event carries the id, status and update time of a device in json.
+     * The stream ends if the client falls behind, the client then reconnects
+     * and loads the devices again.
+     * The configuration in the <code>routes</code> file means that
+     * this method will be called when the application receives a
+     * <code>GET</code> request with a path of <code>/devices/events</code>.
+     *
+     * @return Result contains the stream of status changes
+     */
+    public Result deviceEvents() {
+        Source<ByteString, NotUsed> events = deviceRepository.subscribeDeviceStatuses()
+                .map(change -> EventSource.Event.event(JsonWriters.write(jsonWriters.statusChange, change).utf8String()))
+                .via(EventSource.flow())
+                .keepAlive(EVENTS_KEEP_ALIVE, () -> KEEP_ALIVE_COMMENT);
+        return ok().chunked(events).as(Http.MimeTypes.EVENT_STREAM);
+    }
+
+    /**
+     * An action that retrieves the number of valid devices by status, over the
+     * whole fleet and per customer, from the counters kept in memory by the
+     * repository, without going to the data storage.
+     * The configuration in the <code>routes</code> file means that
+     * this method will be called when the application receives a
+     * <code>GET</code> request with a path of <code>/summary</code>.
+     *
+     * @param customerId id of the customer to summarize, all customers if not given
+     * @return Result contains the device counts, or service unavailable while the counts are loaded at startup
+     */
+    public Result getSummary(Optional<Long> customerId) {
+        FleetSummary summary = deviceRepository.fleetSummary(customerId.orElse(null));
+        if (summary == null) {
+            return status(SERVICE_UNAVAILABLE, "the device counts are being loaded").withHeader(Http.HeaderNames.RETRY_AFTER, "1");
+        }
+        return JsonWriters.ok(jsonWriters.summary, summary);
     }
 
     /**
@@ -113,28 +253,63 @@ public class DeviceController extends Controller {
      * <code>POST</code> request with a path of <code>/device/:id</code>.
      *
      * @param id id of the device to be removed
-     * @return CompletionStage<Result> contains id from the removed device
+     * @return CompletionStage<Result> contains id from the removed device,
+     * or not found if there is no such device
      */
     public CompletionStage<Result> removeDevice(Long id) {
         return deviceRepository
                 .removeDevice(id)
-                .thenApplyAsync(deviceId -> ok(toJson(deviceId)), execCxt.current());
+                .thenApply(removed -> removed
+                        .map(deviceId -> JsonWriters.ok(jsonWriters.id, deviceId))
+                        .orElseGet(() -> notFound("device " + id + " does not exist")));
     }
 
     /**
      * An action that persists the device log into data storage.
+     * The log is parsed by DeviceLogBodyParser, from a form, json, or a frame of
+     * <code>application/vnd.devicemonitor.log</code>, see DeviceLogFrames.
+     * The added log is sent back as a frame if the client accepts frames.
      * The configuration in the <code>routes</code> file means that
      * this method will be called when the application receives a
      * <code>POST</code> request with a path of <code>/update</code>.
      *
      * @param request Http request that contains the device log object
-     * @return CompletionStage<Result> contains device log that have been added
+     * @return CompletionStage<Result> contains device log that have been added,
+     * or service unavailable with a retry hint if the ingest buffer is full
      */
+    @BodyParser.Of(DeviceLogBodyParser.class)
     public CompletionStage<Result> updateDevice(final Http.Request request) {
-        DeviceLog deviceLog = formFactory.form(DeviceLog.class).bindFromRequest(request).get();
+        DeviceLog deviceLog = request.body().as(DeviceLog.class);
+        boolean framesAccepted = DeviceLogFrames.acceptsFrames(request);
         return deviceRepository
                 .updateDeviceLog(deviceLog)
-                .thenApplyAsync(deviceLogAdded -> ok(toJson(deviceLogAdded)), execCxt.current());
+                .thenApply(deviceLogAdded -> framesAccepted
+                        ? DeviceLogFrames.ok(Collections.singletonList(deviceLogAdded))
+                        : JsonWriters.ok(jsonWriters.deviceLog, deviceLogAdded))
+                .exceptionally(DeviceController::rejected);
+    }
+
+    /**
+     * An action that persists a batch of device logs into data storage,
+     * e.g. the reports buffered by a gateway, within one transaction.
+     * The batch is parsed by DeviceLogsBodyParser, from a json array, or frames of
+     * <code>application/vnd.devicemonitor.log</code> back to back.
+     * The configuration in the <code>routes</code> file means that
+     * this method will be called when the application receives a
+     * <code>POST</code> request with a path of <code>/update/batch</code>.
+     *
+     * @param request Http request that contains a json array of device logs
+     * @return CompletionStage<Result> contains device logs that have been added
+     */
+    @BodyParser.Of(DeviceLogsBodyParser.class)
+    public CompletionStage<Result> updateDevices(final Http.Request request) {
+        List<DeviceLog> deviceLogs = Arrays.asList(request.body().as(DeviceLog[].class));
+        boolean framesAccepted = DeviceLogFrames.acceptsFrames(request);
+        return deviceRepository
+                .updateDeviceLogs(deviceLogs)
+                .thenApply(deviceLogsAdded -> framesAccepted
+                        ? DeviceLogFrames.ok(deviceLogsAdded)
+                        : JsonWriters.ok(jsonWriters.deviceLogs, deviceLogsAdded));
     }
 
     /**
@@ -149,8 +324,130 @@ public class DeviceController extends Controller {
     public CompletionStage<Result> checkDevice(Long id) {
         return deviceRepository
                 .checkDeviceLog(id)
-                .thenApplyAsync(deviceLog -> ok(toJson(deviceLog)), execCxt.current());
+                .thenApply(deviceLog -> JsonWriters.ok(jsonWriters.deviceLog, deviceLog));
+    }
+
+    /**
+     * An action that exports the device logs updated within a time range,
+     * of the given devices or of all devices, ordered by update time, device
+     * by device for the given devices. The logs are streamed as NDJSON, or as
+     * CSV if the client accepts <code>text/csv</code>, while they are paged
+     * through the database, at the pace the client reads the response.
+     * The configuration in the <code>routes</code> file means that
+     * this method will be called when the application receives a
+     * <code>GET</code> request with a path of <code>/logs</code>.
+     *
+     * @param request http request that may accept text/csv
+     * @param deviceId ids of the devices, all devices if none
+     * @param from update time in millis the range starts at, inclusive
+     * @param to update time in millis the range ends at, exclusive, now if not given
+     * @return Result contains the device logs in the range, one per line
+     */
+    public Result exportDeviceLogs(final Http.Request request, List<Long> deviceId, Long from, Optional<Long> to) {
+        DeviceLogRange range = new DeviceLogRange(deviceId, from, to.orElse(System.currentTimeMillis()));
+        if (range.from >= range.to) {
+            return badRequest("from should be before to");
+        }
+
+        Source<DeviceLog, NotUsed> logs = deviceRepository.exportDeviceLogs(range);
+        if (DeviceLogExport.acceptsCsv(request)) {
+            return ok().chunked(DeviceLogExport.csv(logs)).as(DeviceLogExport.CSV);
+        }
+        return ok().chunked(DeviceLogExport.ndjson(logs, jsonWriters.deviceLog)).as(DeviceLogExport.NDJSON);
+    }
+
+    /**
+     * An action that retrieves the hourly rollups of the logs of a selected device,
+     * i.e. the number of reports per status, the max execution hours and the
+     * number of errors. The configuration in the <code>routes</code> file means that
+     * this method will be called when the application receives a
+     * <code>GET</code> request with a path of <code>/rollups/:id</code>.
+     *
+     * @param id id of the device
+     * @param from start of the first hour in millis, defaults to 24 hours ago
+     * @param to end of the last hour in millis, defaults to now
+     * @return CompletionStage<Result> contains the hourly rollups of the device
+     */
+    public CompletionStage<Result> getDeviceRollups(Long id, Optional<Long> from, Optional<Long> to) {
+        long now = System.currentTimeMillis();
+        return deviceRepository
+                .listDeviceLogRollups(id, from.orElse(now - ROLLUP_WINDOW_MILLIS), to.orElse(now))
+                .thenApply(rollups -> JsonWriters.ok(jsonWriters.rollups, rollups));
+    }
+
+    /**
+     * Check if the client already has the current version of the resource
+     *
+     * @param request http request that may carry If-None-Match
+     * @param etag current entity tag of the resource
+     * @return true if one of the entity tags of the request matches
+     */
+    static boolean notModified(Http.Request request, String etag) {
+        return request.header(Http.HeaderNames.IF_NONE_MATCH)
+                .map(tags -> Arrays.stream(tags.split(","))
+                        .map(String::trim)
+                        .anyMatch(tag -> tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)))
+                .orElse(false);
     }
 
+    /**
+     * Tag the response with the entity tag of the devices, if there is one
+     *
+     * @param result response
+     * @param etag entity tag, or null
+     * @return the tagged response
+     */
+    private static Result tagged(Result result, String etag) {
+        return etag == null ? result : result.withHeader(Http.HeaderNames.ETAG, etag);
+    }
+
+    /**
+     * Render the rejection of a device log as service unavailable,
+     * telling the client when to retry. Other failures are passed on.
+     *
+     * @param error failure of the update
+     * @return Result contains the retry hint
+     */
+    private static Result rejected(Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        if (!(cause instanceof IngestRejectedException)) {
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+        }
+
+        long retryAfter = Math.max(1, ((IngestRejectedException) cause).getRetryAfter().getSeconds());
+        return status(SERVICE_UNAVAILABLE, cause.getMessage()).withHeader(Http.HeaderNames.RETRY_AFTER, String.valueOf(retryAfter));
+    }
+
+    /**
+     * Render one page of elements, with the cursor of the next page
+     * if the page is full.
+     *
+     * @param elements elements of the page
+     * @param pageSize max number of elements in the page
+     * @param id function that returns the id of an element
+     * @param writer writer of the list of elements
+     * @return Result contains the page
+     */
+    static <T> Result page(List<T> elements, int pageSize, Function<T, Long> id, ObjectWriter writer) {
+        Result result = JsonWriters.ok(writer, elements);
+        if (elements.size() < pageSize) {
+            return result;
+        }
+        return result.withHeader(NEXT_AFTER, String.valueOf(id.apply(elements.get(elements.size() - 1))));
+    }
+
+    /**
+     * Render the elements as a json array, one element at a time,
+     * so that the response is streamed while the elements are fetched.
+     *
+     * @param elements source of the elements to be rendered
+     * @param writer writer of one element
+     * @return source of the json array in chunks
+     */
+    static <T> Source<ByteString, NotUsed> jsonArray(Source<T, NotUsed> elements, ObjectWriter writer) {
+        return elements
+                .map(element -> JsonWriters.write(writer, element))
+                .intersperse(ByteString.fromString("["), ByteString.fromString(","), ByteString.fromString("]"));
+    }
 
 }
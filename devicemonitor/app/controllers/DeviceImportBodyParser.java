@@ -0,0 +1,148 @@
+package controllers;
+
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import jpa.DeviceRepository;
+import jpa.models.Device;
+import play.http.HttpErrorHandler;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Imports the devices of the request body of /add/devices while the body is
+ * streamed in, so that the memory used does not grow with the size of the
+ * import. The body is NDJSON, one json device per line, or CSV with a header
+ * line naming the columns, see DeviceImportReader.
+ *
+ * The valid devices are added in batches of <code>deviceImport.batchSize</code>,
+ * each batch in one transaction, one batch at a time. A row that is invalid, or
+ * belongs to a batch that failed, is reported with its line and error, up to
+ * <code>deviceImport.maxErrors</code> errors.
+ *
+ * Another content type is answered with 415 Unsupported Media Type, and a line
+ * longer than <code>deviceImport.maxLineLength</code> with 400 Bad Request,
+ * keeping the batches added before that line.
+ */
+public class DeviceImportBodyParser implements BodyParser<DeviceImportReport> {
+
+    private static final List<String> NDJSON = Arrays.asList("application/x-ndjson", "application/ndjson");
+    private static final String CSV = "text/csv";
+
+    private final DeviceRepository deviceRepository;
+    private final HttpErrorHandler errorHandler;
+    private final JsonFactory jsonFactory;
+    private final int batchSize;
+    private final int maxLineLength;
+    private final int maxErrors;
+
+    @Inject
+    public DeviceImportBodyParser(DeviceRepository deviceRepository, Config config, HttpErrorHandler errorHandler, ObjectMapper mapper) {
+        this.deviceRepository = deviceRepository;
+        this.errorHandler = errorHandler;
+        this.jsonFactory = mapper.getFactory();
+        this.batchSize = config.getInt("deviceImport.batchSize");
+        this.maxLineLength = (int) (long) config.getBytes("deviceImport.maxLineLength");
+        this.maxErrors = config.getInt("deviceImport.maxErrors");
+    }
+
+    @Override
+    public Accumulator<ByteString, F.Either<Result, DeviceImportReport>> apply(Http.RequestHeader request) {
+        String contentType = request.contentType().map(value -> value.toLowerCase(Locale.ENGLISH)).orElse("");
+        DeviceImportReader reader;
+        if (NDJSON.contains(contentType)) {
+            reader = DeviceImportReader.ndjson(jsonFactory);
+        } else if (contentType.equals(CSV)) {
+            reader = DeviceImportReader.csv();
+        } else {
+            return Accumulator.done(errorHandler
+                    .onClientError(request, Http.Status.UNSUPPORTED_MEDIA_TYPE, "Expecting " + String.join(", ", NDJSON) + " or " + CSV)
+                    .thenApply(F.Either::Left));
+        }
+
+        Sink<ByteString, CompletionStage<F.Either<Result, DeviceImportReport>>> sink = importSink(reader)
+                .mapMaterializedValue(report -> report
+                        .handle((imported, e) -> e == null
+                                ? CompletableFuture.completedFuture(F.Either.<Result, DeviceImportReport>Right(imported))
+                                : errorHandler
+                                .onClientError(request, Http.Status.BAD_REQUEST, "Error importing devices: " + cause(e).getMessage())
+                                .thenApply(F.Either::<Result, DeviceImportReport>Left))
+                        .thenCompose(Function.identity()));
+        return Accumulator.fromSink(sink);
+    }
+
+    private Sink<ByteString, CompletionStage<DeviceImportReport>> importSink(DeviceImportReader reader) {
+        return Flow.<ByteString>create()
+                .via(Framing.delimiter(ByteString.fromString("\n"), maxLineLength, FramingTruncation.ALLOW))
+                .mapConcat(reader::read)
+                .grouped(batchSize)
+                .mapAsync(1, this::importBatch)
+                .toMat(Sink.fold(new DeviceImportReport(maxErrors), DeviceImportBodyParser::report), Keep.right());
+    }
+
+    // add the valid devices of the rows, the outcome of the batch is the error of the transaction, if any
+    private CompletionStage<Batch> importBatch(List<DeviceImportReader.Row> rows) {
+        List<Device> devices = new ArrayList<>();
+        for (DeviceImportReader.Row row : rows) {
+            if (row.device != null) {
+                devices.add(row.device);
+            }
+        }
+        if (devices.isEmpty()) {
+            return CompletableFuture.completedFuture(new Batch(rows, null));
+        }
+        return deviceRepository
+                .addDevices(devices)
+                .thenApply(added -> new Batch(rows, null))
+                .exceptionally(e -> new Batch(rows, String.valueOf(cause(e).getMessage())));
+    }
+
+    private static DeviceImportReport report(DeviceImportReport report, Batch batch) {
+        long imported = 0;
+        for (DeviceImportReader.Row row : batch.rows) {
+            if (row.error != null) {
+                report.failed(row.line, row.error);
+            } else if (batch.error != null) {
+                report.failed(row.line, batch.error);
+            } else {
+                imported++;
+            }
+        }
+        report.imported(imported);
+        return report;
+    }
+
+    private static Throwable cause(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static class Batch {
+
+        final List<DeviceImportReader.Row> rows;
+        final String error;
+
+        Batch(List<DeviceImportReader.Row> rows, String error) {
+            this.rows = rows;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package controllers;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jpa.models.Device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the devices of a bulk import one line at a time, from NDJSON, i.e. one
+ * json device per line, or from CSV with a header line naming the columns.
+ * A reader keeps the line number, and for CSV the columns, so it reads the
+ * lines of one import in order.
+ */
+abstract class DeviceImportReader {
+
+    private static final int MAX_DESCRIPTION_LENGTH = 200;
+    private static final int MAX_STATUS_LENGTH = 10;
+
+    private long line;
+
+    /**
+     * A device read from a line, or the error of the line
+     */
+    static class Row {
+
+        final long line;
+        final Device device;
+        final String error;
+
+        private Row(long line, Device device, String error) {
+            this.line = line;
+            this.device = device;
+            this.error = error;
+        }
+    }
+
+    static DeviceImportReader ndjson(JsonFactory jsonFactory) {
+        return new DeviceImportReader() {
+            @Override
+            Device parse(String text) throws Exception {
+                try (JsonParser parser = jsonFactory.createParser(text)) {
+                    if (parser.nextToken() != JsonToken.START_OBJECT) {
+                        throw new IllegalArgumentException("expecting a json object");
+                    }
+                    Device device = DeviceBodyParser.readDevice(parser);
+                    if (parser.nextToken() != null) {
+                        throw new IllegalArgumentException("unexpected content after the json object");
+                    }
+                    return device;
+                }
+            }
+        };
+    }
+
+    static DeviceImportReader csv() {
+        return new DeviceImportReader() {
+
+            private List<String> columns;
+
+            @Override
+            Device parse(String text) {
+                List<String> values = splitCsv(text);
+                if (columns == null) {
+                    columns = values;
+                    if (!columns.contains("customerId") || !columns.contains("description")) {
+                        throw new IllegalArgumentException("header should name the customerId and description columns");
+                    }
+                    return null;
+                }
+                if (values.size() != columns.size()) {
+                    throw new IllegalArgumentException("expecting " + columns.size() + " values, found " + values.size());
+                }
+
+                Device device = new Device();
+                for (int i = 0; i < columns.size(); i++) {
+                    String value = values.get(i).isEmpty() ? null : values.get(i);
+                    switch (columns.get(i)) {
+                        case "id":
+                            device.id = value == null ? null : Long.parseLong(value.trim());
+                            break;
+                        case "customerId":
+                            device.customerId = value == null ? null : Long.parseLong(value.trim());
+                            break;
+                        case "description":
+                            device.description = value;
+                            break;
+                        case "status":
+                            device.status = value;
+                            break;
+                        case "updateAt":
+                            device.updateAt = value == null ? null : Long.parseLong(value.trim());
+                            break;
+                        default:
+                    }
+                }
+                return device;
+            }
+        };
+    }
+
+    /**
+     * Read the next line
+     *
+     * @param bytes the line, without the line break
+     * @return the row of the line, or nothing for a blank or header line
+     */
+    List<Row> read(ByteString bytes) {
+        line++;
+        String text = bytes.utf8String();
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        if (text.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Device device;
+        try {
+            device = parse(text);
+        } catch (NumberFormatException e) {
+            return Collections.singletonList(new Row(line, null, "expecting a number: " + e.getMessage()));
+        } catch (Exception e) {
+            return Collections.singletonList(new Row(line, null, e.getMessage()));
+        }
+        if (device == null) {
+            return Collections.emptyList();
+        }
+
+        String error = validate(device);
+        return Collections.singletonList(new Row(line, error == null ? device : null, error));
+    }
+
+    /**
+     * Parse a line that is not blank
+     *
+     * @param text the line
+     * @return the device, or null for a line without a device
+     * @throws Exception if the line is malformed
+     */
+    abstract Device parse(String text) throws Exception;
+
+    private static String validate(Device device) {
+        if (device.customerId == null) {
+            return "customerId is required";
+        }
+        if (device.description == null || device.description.trim().isEmpty()) {
+            return "description is required";
+        }
+        if (device.description.length() > MAX_DESCRIPTION_LENGTH) {
+            return "description is longer than " + MAX_DESCRIPTION_LENGTH + " characters";
+        }
+        if (device.status != null && device.status.length() > MAX_STATUS_LENGTH) {
+            return "status is longer than " + MAX_STATUS_LENGTH + " characters";
+        }
+        if (device.updateAt == null) {
+            device.updateAt = System.currentTimeMillis();
+        }
+        return null;
+    }
+
+    // split a csv line into its values, a quoted value may hold commas and doubled quotes
+    private static List<String> splitCsv(String text) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted value");
+        }
+        values.add(value.toString());
+        return values;
+    }
+}
@@ -0,0 +1,52 @@
+package controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk device import: the number of imported and failed rows,
+ * and the errors of the failed rows, up to a maximum number of errors.
+ */
+public class DeviceImportReport {
+
+    public long imported;
+
+    public long failed;
+
+    public final List<RowError> errors = new ArrayList<>();
+
+    // true if more rows failed than errors are reported
+    public boolean errorsTruncated;
+
+    private final int maxErrors;
+
+    DeviceImportReport(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    void imported(long rows) {
+        imported += rows;
+    }
+
+    void failed(long line, String error) {
+        failed++;
+        if (errors.size() < maxErrors) {
+            errors.add(new RowError(line, error));
+        } else {
+            errorsTruncated = true;
+        }
+    }
+
+    public static class RowError {
+
+        // line of the row in the request body, starting from 1
+        public final long line;
+
+        public final String error;
+
+        RowError(long line, String error) {
+            this.line = line;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package controllers;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import jpa.models.DeviceLog;
+import play.data.FormFactory;
+import play.http.HttpErrorHandler;
+import play.mvc.Http;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parses the request body of /update into a device log,
+ * from a binary frame as well, see DeviceLogFrames
+ */
+public class DeviceLogBodyParser extends EntityBodyParser<DeviceLog> {
+
+    @Inject
+    public DeviceLogBodyParser(Config config, HttpErrorHandler errorHandler, FormFactory formFactory, ObjectMapper mapper) {
+        super(DeviceLog.class, config, errorHandler, formFactory, mapper);
+    }
+
+    @Override
+    protected DeviceLog parse(Http.RequestHeader request, ByteString bytes) throws Exception {
+        if (!DeviceLogFrames.isFrames(request)) {
+            return super.parse(request, bytes);
+        }
+
+        List<DeviceLog> deviceLogs = DeviceLogFrames.decode(bytes);
+        if (deviceLogs.size() != 1) {
+            throw new IllegalArgumentException("expecting one device log frame");
+        }
+        validateDeviceLog(deviceLogs.get(0));
+        return deviceLogs.get(0);
+    }
+
+    @Override
+    protected DeviceLog read(JsonParser parser) throws IOException {
+        return readDeviceLog(parser);
+    }
+
+    @Override
+    protected void validate(DeviceLog log) {
+        validateDeviceLog(log);
+    }
+
+    /**
+     * Read the fields of a device log, the parser is at the start of the json object
+     * and is left at its end
+     *
+     * @param parser json parser
+     * @return the device log
+     * @throws IOException if the json is malformed
+     */
+    static DeviceLog readDeviceLog(JsonParser parser) throws IOException {
+        DeviceLog log = new DeviceLog();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    log.id = readLong(parser);
+                    break;
+                case "deviceId":
+                    log.deviceId = readLong(parser);
+                    break;
+                case "status":
+                    log.status = readText(parser);
+                    break;
+                case "executionHours":
+                    log.executionHours = readInt(parser);
+                    break;
+                case "error":
+                    log.error = readText(parser);
+                    break;
+                case "updateAt":
+                    log.updateAt = readLong(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Check the required fields of a device log, a missing update time is the current time
+     *
+     * @param log device log
+     * @throws IllegalArgumentException if the device id or the status is missing
+     */
+    static void validateDeviceLog(DeviceLog log) {
+        require(log.deviceId, "deviceId");
+        require(log.status, "status");
+        if (log.updateAt == null) {
+            log.updateAt = System.currentTimeMillis();
+        }
+    }
+}
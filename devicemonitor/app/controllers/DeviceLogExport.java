@@ -0,0 +1,82 @@
+package controllers;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jpa.models.DeviceLog;
+import play.mvc.Http;
+
+/**
+ * Renders exported device logs, one log per line, as NDJSON or as CSV with
+ * a header line. The lines are rendered while the logs are fetched, so an
+ * export is streamed without being held in memory.
+ */
+public class DeviceLogExport {
+
+    // content type of one json device log per line
+    static final String NDJSON = "application/x-ndjson";
+
+    static final String CSV = "text/csv";
+
+    private static final ByteString NEWLINE = ByteString.fromString("\n");
+    private static final ByteString CSV_HEADER = ByteString.fromString("id,deviceId,status,executionHours,error,updateAt\n");
+
+    private DeviceLogExport() {
+    }
+
+    /**
+     * Check if the client asks for CSV, the export is NDJSON unless CSV is
+     * listed in the Accept header
+     *
+     * @param request http request
+     * @return true if the client accepts CSV
+     */
+    static boolean acceptsCsv(Http.RequestHeader request) {
+        return request.header(Http.HeaderNames.ACCEPT).filter(accept -> accept.contains(CSV)).isPresent();
+    }
+
+    /**
+     * Render the device logs as NDJSON
+     *
+     * @param logs source of the device logs
+     * @param writer writer of one device log
+     * @return source of the lines
+     */
+    static Source<ByteString, NotUsed> ndjson(Source<DeviceLog, NotUsed> logs, ObjectWriter writer) {
+        return logs.map(log -> JsonWriters.write(writer, log).concat(NEWLINE));
+    }
+
+    /**
+     * Render the device logs as CSV, starting with the header line
+     *
+     * @param logs source of the device logs
+     * @return source of the lines
+     */
+    static Source<ByteString, NotUsed> csv(Source<DeviceLog, NotUsed> logs) {
+        return Source.single(CSV_HEADER).concat(logs.map(DeviceLogExport::csvLine));
+    }
+
+    static ByteString csvLine(DeviceLog log) {
+        StringBuilder line = new StringBuilder();
+        line.append(log.id).append(',')
+                .append(log.deviceId).append(',')
+                .append(csvValue(log.status)).append(',')
+                .append(log.executionHours).append(',')
+                .append(csvValue(log.error)).append(',')
+                .append(log.updateAt == null ? "" : String.valueOf(log.updateAt))
+                .append('\n');
+        return ByteString.fromString(line.toString());
+    }
+
+    // quote a value holding a comma, a quote or a line break, doubling its quotes
+    private static String csvValue(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
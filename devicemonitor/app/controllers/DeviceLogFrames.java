@@ -0,0 +1,188 @@
+package controllers;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import jpa.models.DeviceLog;
+import play.http.HttpEntity;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Compact binary encoding of device logs, for devices that pay for every byte
+ * on the wire. A body holds one or more frames back to back, each frame is laid
+ * out in big-endian order as
+ *
+ * <pre>
+ *   version         1 byte, currently 1
+ *   device id       8 bytes
+ *   status          1 byte, 1 ACTIVE, 2 ERROR, 3 INACTIVE, 4 INVALID, or 0 followed
+ *                   by 1 byte of length and the status in UTF-8
+ *   execution hours 4 bytes
+ *   update time     8 bytes, in millis, 0 if not reported
+ *   error           2 bytes of length, followed by the error in UTF-8
+ * </pre>
+ *
+ * A log of a known status without an error takes 24 bytes. An unreported update
+ * time is decoded as the time the frames are received, and an error of length 0
+ * as no error, as for a log posted as json.
+ */
+public class DeviceLogFrames {
+
+    // content type of a body of frames
+    static final String MIME_TYPE = "application/vnd.devicemonitor.log";
+
+    private static final byte VERSION = 1;
+
+    // codes of the common statuses, the index is the code, code 0 is a status spelled out
+    private static final String[] STATUSES = {null, "ACTIVE", "ERROR", "INACTIVE", "INVALID"};
+
+    private static final int MAX_STATUS_LENGTH = 255;
+    private static final int MAX_ERROR_LENGTH = 65535;
+
+    private DeviceLogFrames() {
+    }
+
+    /**
+     * Check if the request body is made of frames
+     *
+     * @param request http request
+     * @return true if the content type is the one of frames
+     */
+    static boolean isFrames(Http.RequestHeader request) {
+        return request.contentType().filter(MIME_TYPE::equals).isPresent();
+    }
+
+    /**
+     * Check if the client asks for frames in the response, the response
+     * stays json unless the frames are listed in the Accept header
+     *
+     * @param request http request
+     * @return true if the client accepts frames
+     */
+    static boolean acceptsFrames(Http.RequestHeader request) {
+        return request.header(Http.HeaderNames.ACCEPT).filter(accept -> accept.contains(MIME_TYPE)).isPresent();
+    }
+
+    /**
+     * Render the device logs as an ok result with a body of frames
+     *
+     * @param logs device logs to be rendered
+     * @return Result contains the device logs as frames
+     */
+    static Result ok(List<DeviceLog> logs) {
+        return new Result(Http.Status.OK, new HttpEntity.Strict(encode(logs), Optional.of(MIME_TYPE)));
+    }
+
+    /**
+     * Decode the device logs of a body of frames
+     *
+     * @param bytes frames back to back
+     * @return the decoded device logs, in the order of the frames
+     * @throws IllegalArgumentException if a frame is malformed or truncated
+     */
+    static List<DeviceLog> decode(ByteString bytes) {
+        ByteBuffer buffer = bytes.asByteBuffer().order(ByteOrder.BIG_ENDIAN);
+        long receivedAt = System.currentTimeMillis();
+        List<DeviceLog> logs = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                logs.add(decodeFrame(buffer, receivedAt));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated device log frame");
+        }
+        return logs;
+    }
+
+    /**
+     * Encode device logs as frames back to back
+     *
+     * @param logs device logs to be encoded
+     * @return the frames
+     */
+    static ByteString encode(List<DeviceLog> logs) {
+        ByteStringBuilder builder = ByteString.createBuilder();
+        for (DeviceLog log : logs) {
+            encodeFrame(builder, log);
+        }
+        return builder.result();
+    }
+
+    private static DeviceLog decodeFrame(ByteBuffer buffer, long receivedAt) {
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported device log frame version " + version);
+        }
+
+        DeviceLog log = new DeviceLog();
+        log.deviceId = buffer.getLong();
+
+        int statusCode = buffer.get() & 0xFF;
+        if (statusCode == 0) {
+            log.status = string(buffer, buffer.get() & 0xFF);
+        } else if (statusCode < STATUSES.length) {
+            log.status = STATUSES[statusCode];
+        } else {
+            throw new IllegalArgumentException("unknown device status code " + statusCode);
+        }
+
+        log.executionHours = buffer.getInt();
+        long updateAt = buffer.getLong();
+        log.updateAt = updateAt == 0 ? receivedAt : updateAt;
+        log.error = string(buffer, buffer.getShort() & 0xFFFF);
+        return log;
+    }
+
+    private static void encodeFrame(ByteStringBuilder builder, DeviceLog log) {
+        builder.putByte(VERSION);
+        builder.putLong(log.deviceId, ByteOrder.BIG_ENDIAN);
+
+        int statusCode = statusCode(log.status);
+        builder.putByte((byte) statusCode);
+        if (statusCode == 0) {
+            byte[] status = bytes(log.status, MAX_STATUS_LENGTH);
+            builder.putByte((byte) status.length);
+            builder.putBytes(status);
+        }
+
+        builder.putInt(log.executionHours, ByteOrder.BIG_ENDIAN);
+        builder.putLong(log.updateAt == null ? 0 : log.updateAt, ByteOrder.BIG_ENDIAN);
+        byte[] error = bytes(log.error, MAX_ERROR_LENGTH);
+        builder.putShort(error.length, ByteOrder.BIG_ENDIAN);
+        builder.putBytes(error);
+    }
+
+    private static int statusCode(String status) {
+        for (int code = 1; code < STATUSES.length; code++) {
+            if (STATUSES[code].equals(status)) {
+                return code;
+            }
+        }
+        return 0;
+    }
+
+    private static String string(ByteBuffer buffer, int length) {
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value, int maxLength) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxLength) {
+            throw new IllegalArgumentException("value longer than " + maxLength + " bytes");
+        }
+        return bytes;
+    }
+}
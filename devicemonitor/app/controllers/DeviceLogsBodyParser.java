@@ -0,0 +1,86 @@
+package controllers;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import jpa.models.DeviceLog;
+import play.http.HttpErrorHandler;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the request body of /update/batch into device logs, from a json array
+ * read token by token, or from frames back to back, see DeviceLogFrames.
+ *
+ * A body longer than <code>entityBodyParser.batchMaxLength</code> is answered with
+ * 413 Request Entity Too Large, a malformed body, an empty batch, or a device log
+ * missing a required field, with 400 Bad Request.
+ */
+public class DeviceLogsBodyParser extends BodyParser.BufferingBodyParser<DeviceLog[]> {
+
+    private final JsonFactory jsonFactory;
+
+    @Inject
+    public DeviceLogsBodyParser(Config config, HttpErrorHandler errorHandler, ObjectMapper mapper) {
+        super(config.getBytes("entityBodyParser.batchMaxLength"), errorHandler, "Error decoding device logs");
+        this.jsonFactory = mapper.getFactory();
+    }
+
+    @Override
+    protected DeviceLog[] parse(Http.RequestHeader request, ByteString bytes) throws Exception {
+        if (!DeviceLogFrames.isFrames(request)) {
+            return toArray(readJson(jsonFactory, bytes));
+        }
+
+        List<DeviceLog> logs = DeviceLogFrames.decode(bytes);
+        logs.forEach(DeviceLogBodyParser::validateDeviceLog);
+        return toArray(logs);
+    }
+
+    private static DeviceLog[] toArray(List<DeviceLog> logs) {
+        if (logs.isEmpty()) {
+            throw new IllegalArgumentException("expecting at least one device log");
+        }
+        return logs.toArray(new DeviceLog[0]);
+    }
+
+    /**
+     * Read a json array of device logs
+     *
+     * @param jsonFactory json factory
+     * @param bytes json array
+     * @return the device logs, in the order of the array
+     * @throws IOException if the json is malformed
+     * @throws IllegalArgumentException if the json is not an array of device logs, or a device log misses a required field
+     */
+    static List<DeviceLog> readJson(JsonFactory jsonFactory, ByteString bytes) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(bytes.toArray())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("expecting a json array of device logs");
+            }
+
+            List<DeviceLog> logs = new ArrayList<>();
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                DeviceLog log = DeviceLogBodyParser.readDeviceLog(parser);
+                DeviceLogBodyParser.validateDeviceLog(log);
+                logs.add(log);
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new IllegalArgumentException("expecting a json object for device log " + logs.size());
+            }
+            if (parser.nextToken() != null) {
+                throw new IllegalArgumentException("unexpected content after the json array");
+            }
+            return logs;
+        }
+    }
+}
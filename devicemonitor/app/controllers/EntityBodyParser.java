@@ -0,0 +1,197 @@
+package controllers;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import play.data.Form;
+import play.data.FormFactory;
+import play.http.HttpErrorHandler;
+import play.i18n.Lang;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses the request body into an entity. A json body is read token by token
+ * straight into the entity, without the reflective form binding and the
+ * validator. Other bodies, e.g. the url encoded forms of the web page, are
+ * bound with the form binder, as are all bodies if
+ * <code>entityBodyParser.binding</code> is "form".
+ *
+ * A body longer than <code>entityBodyParser.maxLength</code> is answered with
+ * 413 Request Entity Too Large, a malformed body, or an entity missing a
+ * required field, with 400 Bad Request. A missing update time is set to the
+ * time the body is parsed, as for an imported device.
+ *
+ * @param <T> type of the entity
+ */
+public abstract class EntityBodyParser<T> extends BodyParser.BufferingBodyParser<T> {
+
+    private final Class<T> type;
+    private final FormFactory formFactory;
+    private final JsonFactory jsonFactory;
+    private final boolean formBinding;
+    private final long maxLength;
+
+    protected EntityBodyParser(Class<T> type, Config config, HttpErrorHandler errorHandler, FormFactory formFactory, ObjectMapper mapper) {
+        super(config.getBytes("entityBodyParser.maxLength"), errorHandler, "Error decoding " + type.getSimpleName());
+        this.type = type;
+        this.formFactory = formFactory;
+        this.jsonFactory = mapper.getFactory();
+        this.formBinding = "form".equals(config.getString("entityBodyParser.binding"));
+        this.maxLength = config.getBytes("entityBodyParser.maxLength");
+    }
+
+    @Override
+    protected T parse(Http.RequestHeader request, ByteString bytes) throws Exception {
+        String contentType = request.contentType().map(value -> value.toLowerCase(Locale.ENGLISH)).orElse("");
+        if (formBinding || !isJson(contentType)) {
+            T entity = bind(request, contentType, bytes);
+            validate(entity);
+            return entity;
+        }
+
+        try (JsonParser parser = jsonFactory.createParser(bytes.toArray())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("expecting a json object");
+            }
+            T entity = read(parser);
+            if (parser.nextToken() != null) {
+                throw new IllegalArgumentException("unexpected content after the json object");
+            }
+            validate(entity);
+            return entity;
+        }
+    }
+
+    /**
+     * Read the fields of the entity, the parser is at the start of the json object
+     * and is left at its end
+     *
+     * @param parser json parser
+     * @return the entity
+     * @throws IOException if the json is malformed
+     */
+    protected abstract T read(JsonParser parser) throws IOException;
+
+    /**
+     * Check the required fields of the entity, so that an incomplete entity is
+     * answered with 400 rather than failing in the repository, and default the
+     * optional ones the repository needs
+     *
+     * @param entity parsed entity
+     * @throws IllegalArgumentException if a required field is missing
+     */
+    protected abstract void validate(T entity);
+
+    private T bind(Http.RequestHeader request, String contentType, ByteString bytes) {
+        Lang lang = request.transientLang().orElse(Lang.defaultLang());
+        Form<T> form;
+        if (isJson(contentType)) {
+            form = formFactory.form(type).bind(lang, request.attrs(), play.libs.Json.parse(bytes.toArray()), maxLength);
+        } else if (contentType.equals(Http.MimeTypes.FORM)) {
+            form = formFactory.form(type).bindFromRequestData(lang, request.attrs(), urlEncoded(bytes.utf8String()));
+        } else {
+            form = formFactory.form(type).bindFromRequestData(lang, request.attrs(), new HashMap<>());
+        }
+
+        if (form.hasErrors()) {
+            throw new IllegalArgumentException(form.errors().toString());
+        }
+        return form.get();
+    }
+
+    private static boolean isJson(String contentType) {
+        return contentType.equals(Http.MimeTypes.JSON) || contentType.endsWith("+json");
+    }
+
+    private static Map<String, String[]> urlEncoded(String body) {
+        Map<String, String[]> data = new HashMap<>();
+        for (String pair : body.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int separator = pair.indexOf('=');
+            String key = decode(separator < 0 ? pair : pair.substring(0, separator));
+            String value = separator < 0 ? "" : decode(pair.substring(separator + 1));
+            data.merge(key, new String[]{value}, (values, added) -> {
+                String[] merged = new String[values.length + 1];
+                System.arraycopy(values, 0, merged, 0, values.length);
+                merged[values.length] = added[0];
+                return merged;
+            });
+        }
+        return data;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check that a required field is set
+     */
+    protected static void require(Object value, String field) {
+        if (value == null) {
+            throw new IllegalArgumentException("missing " + field);
+        }
+    }
+
+    /**
+     * Read a json number, or a number in a json string, as long
+     */
+    protected static Long readLong(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_STRING:
+                return Long.parseLong(parser.getText().trim());
+            default:
+                throw new IllegalArgumentException("expecting a number for " + parser.getCurrentName());
+        }
+    }
+
+    /**
+     * Read a json number, or a number in a json string, as int
+     */
+    protected static int readInt(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+                return parser.getIntValue();
+            case VALUE_STRING:
+                return Integer.parseInt(parser.getText().trim());
+            default:
+                throw new IllegalArgumentException("expecting a number for " + parser.getCurrentName());
+        }
+    }
+
+    /**
+     * Read a json scalar as text
+     */
+    protected static String readText(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new IllegalArgumentException("expecting a text for " + parser.getCurrentName());
+        }
+        return parser.getText();
+    }
+}
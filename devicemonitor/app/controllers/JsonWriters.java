@@ -0,0 +1,86 @@
+package controllers;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jpa.DeviceStatusChange;
+import jpa.FleetSummary;
+import jpa.models.Customer;
+import jpa.models.Device;
+import jpa.models.DeviceLog;
+import jpa.models.DeviceLogHourly;
+import play.http.HttpEntity;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Json writers of the models and their lists, prepared once from the application
+ * object mapper. Values are written straight into a ByteString, without building
+ * a JsonNode tree first.
+ */
+@Singleton
+public class JsonWriters {
+
+    final ObjectWriter customer;
+    final ObjectWriter customers;
+    final ObjectWriter device;
+    final ObjectWriter devices;
+    final ObjectWriter deviceLog;
+    final ObjectWriter deviceLogs;
+    final ObjectWriter rollups;
+    final ObjectWriter statusChange;
+    final ObjectWriter importReport;
+    final ObjectWriter summary;
+    final ObjectWriter id;
+
+    @Inject
+    public JsonWriters(ObjectMapper mapper) {
+        this.customer = mapper.writerFor(Customer.class);
+        this.customers = mapper.writerFor(new TypeReference<List<Customer>>() {});
+        this.device = mapper.writerFor(Device.class);
+        this.devices = mapper.writerFor(new TypeReference<List<Device>>() {});
+        this.deviceLog = mapper.writerFor(DeviceLog.class);
+        this.deviceLogs = mapper.writerFor(new TypeReference<List<DeviceLog>>() {});
+        this.rollups = mapper.writerFor(new TypeReference<List<DeviceLogHourly>>() {});
+        this.statusChange = mapper.writerFor(DeviceStatusChange.class);
+        this.importReport = mapper.writerFor(DeviceImportReport.class);
+        this.summary = mapper.writerFor(FleetSummary.class);
+        this.id = mapper.writerFor(Long.class);
+    }
+
+    /**
+     * Write the value as json
+     *
+     * @param writer writer of the type of the value
+     * @param value value to be written, null is written as json null
+     * @return the json in bytes
+     */
+    static ByteString write(ObjectWriter writer, Object value) {
+        ByteStringBuilder builder = ByteString.createBuilder();
+        try {
+            writer.writeValue(builder.asOutputStream(), value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return builder.result();
+    }
+
+    /**
+     * Render the value as an ok result with a json body
+     *
+     * @param writer writer of the type of the value
+     * @param value value to be rendered
+     * @return Result contains the value in json
+     */
+    static Result ok(ObjectWriter writer, Object value) {
+        return new Result(Http.Status.OK, new HttpEntity.Strict(write(writer, value), Optional.of(Http.MimeTypes.JSON)));
+    }
+}
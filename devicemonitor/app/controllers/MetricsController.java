@@ -0,0 +1,31 @@
+package controllers;
+
+import metrics.MetricsRegistry;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+
+/**
+ * This controller exposes the application metrics in the Prometheus text format.
+ */
+public class MetricsController extends Controller {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry metrics;
+
+    @Inject
+    public MetricsController(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * An action that renders all metrics
+     *
+     * @return Result contains the metrics in text
+     */
+    public Result metrics() {
+        return ok(metrics.scrape()).as(CONTENT_TYPE);
+    }
+}
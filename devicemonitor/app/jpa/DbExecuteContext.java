@@ -1,14 +1,104 @@
 package jpa;
 
 import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
 import play.libs.concurrent.CustomExecutionContext;
 
 import javax.inject.Inject;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Execution context of the repository work. By default the work runs on the fixed
+ * database.dispatcher. With database.executor = "virtual" each task runs on its own
+ * virtual thread instead, and a semaphore sized to the connection pool limits how many
+ * run at once, so that waiting tasks park without holding a platform thread.
+ */
 public class DbExecuteContext extends CustomExecutionContext {
 
+    // tasks waiting for a thread of the dispatcher, and tasks running on it
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LatencyHistogram queueTime;
+
+    // virtual thread executor and its concurrency limit, null when running on the dispatcher
+    private final Executor virtualThreads;
+    private final Semaphore permits;
+
     @Inject
-    public DbExecuteContext(ActorSystem actorSystem) {
-        super(actorSystem, "database.dispatcher");
+    public DbExecuteContext(ActorSystem actorSystem, Config config, MetricsRegistry metrics) {
+        this(actorSystem, config, metrics, "database");
+    }
+
+    /**
+     * Create the execution context configured under the given path, i.e. by
+     * path.executor, path.dispatcher and path.virtual.maxConcurrency
+     */
+    protected DbExecuteContext(ActorSystem actorSystem, Config config, MetricsRegistry metrics, String path) {
+        super(actorSystem, path + ".dispatcher");
+        String dispatcher = path + ".dispatcher";
+        this.queueTime = metrics.histogram("dispatcher_queue_seconds", "Time a task waits for a thread of the dispatcher", "dispatcher", dispatcher);
+        metrics.gauge("dispatcher_queued_tasks", "Tasks waiting for a thread of the dispatcher", "dispatcher", dispatcher, queued::get);
+        metrics.gauge("dispatcher_active_threads", "Threads of the dispatcher running a task", "dispatcher", dispatcher, active::get);
+
+        String executor = config.getString(path + ".executor");
+        if ("virtual".equals(executor)) {
+            this.virtualThreads = newVirtualThreadPerTaskExecutor();
+            this.permits = new Semaphore(config.getInt(path + ".virtual.maxConcurrency"), true);
+        } else if ("dispatcher".equals(executor)) {
+            this.virtualThreads = null;
+            this.permits = null;
+        } else {
+            throw new IllegalArgumentException(path + ".executor should be dispatcher or virtual, but was " + executor);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long submitted = System.nanoTime();
+        queued.incrementAndGet();
+        if (virtualThreads == null) {
+            super.execute(() -> run(command, submitted));
+            return;
+        }
+
+        virtualThreads.execute(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                run(command, submitted);
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    private void run(Runnable command, long submitted) {
+        queued.decrementAndGet();
+        active.incrementAndGet();
+        queueTime.recordSince(submitted);
+        try {
+            command.run();
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Look up the virtual thread executor at runtime, so that the application
+     * still builds and runs on JDKs without virtual threads
+     *
+     * @return executor that starts a new virtual thread for each task
+     */
+    private static Executor newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("database.executor = virtual needs a JDK with virtual threads (21 or later)", e);
+        }
     }
 }
@@ -0,0 +1,27 @@
+package jpa;
+
+/**
+ * Optional conditions to narrow down the listed devices,
+ * a condition that is null matches every device.
+ */
+public class DeviceFilter {
+
+    public static final DeviceFilter ALL = new DeviceFilter(null, null);
+
+    public final String status;
+
+    public final Long customerId;
+
+    // update time to list the devices changed after, removed devices included
+    public final Long since;
+
+    public DeviceFilter(String status, Long customerId) {
+        this(status, customerId, null);
+    }
+
+    public DeviceFilter(String status, Long customerId, Long since) {
+        this.status = status;
+        this.customerId = customerId;
+        this.since = since;
+    }
+}
@@ -0,0 +1,84 @@
+package jpa;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.typesafe.config.Config;
+import jpa.models.DeviceLog;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the latest device log per device id, filled when
+ * a log is persisted and read when the status of a device is checked.
+ * The reads and writes do not lock each other, the devices read least
+ * are evicted once the cache is full.
+ *
+ * Every node caches the logs it persists itself, so with several app nodes
+ * a cached log may miss the newer logs persisted by the other nodes. A log
+ * expires <code>deviceLogCache.expireAfterWrite</code> after it is cached,
+ * which bounds how long a node answers with a stale latest log.
+ */
+@Singleton
+public class DeviceLogCache {
+
+    private final Cache<Long, DeviceLog> latestLogs;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Inject
+    public DeviceLogCache(Config config) {
+        this(config.getInt("deviceLogCache.maxSize"), config.getDuration("deviceLogCache.expireAfterWrite"), Ticker.systemTicker());
+    }
+
+    DeviceLogCache(int maxSize, Duration expireAfterWrite, Ticker ticker) {
+        this.latestLogs = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWrite.toNanos(), TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Get the latest log of the device
+     *
+     * @param deviceId device id
+     * @return the latest device log, or null if the device is not cached
+     */
+    public DeviceLog get(Long deviceId) {
+        DeviceLog log = latestLogs.getIfPresent(deviceId);
+        if (log == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return log;
+    }
+
+    /**
+     * Cache the log as the latest log of its device, unless a newer log
+     * (with a higher id) has been cached already
+     *
+     * @param log the persisted device log
+     */
+    public void put(DeviceLog log) {
+        latestLogs.asMap().merge(log.deviceId, log, (cached, added) -> cached.id <= added.id ? added : cached);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long size() {
+        latestLogs.cleanUp();
+        return latestLogs.estimatedSize();
+    }
+}
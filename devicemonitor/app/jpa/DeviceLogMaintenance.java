@@ -0,0 +1,95 @@
+package jpa;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Runs the periodic maintenance of device logs in the background:
+ * the hourly rollups are recomputed for the recent hours that got new
+ * logs, and the daily partitions of device_log are rotated by the
+ * retention. Every node schedules the tasks, and at every interval the
+ * first node to claim a task on a database runs it there.
+ */
+@Singleton
+public class DeviceLogMaintenance {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceLogMaintenance.class);
+
+    private static final long HOUR_MILLIS = Duration.ofHours(1).toMillis();
+
+    private final JPADeviceRepository deviceRepository;
+    private final ActorSystem actorSystem;
+
+    @Inject
+    public DeviceLogMaintenance(JPADeviceRepository deviceRepository, ActorSystem actorSystem, Config config, ApplicationLifecycle lifecycle) {
+        this.deviceRepository = deviceRepository;
+        this.actorSystem = actorSystem;
+
+        Config rollup = config.getConfig("deviceLog.rollup");
+        if (rollup.getBoolean("enabled")) {
+            Duration interval = rollup.getDuration("interval");
+            Duration lookback = rollup.getDuration("lookback");
+            Cancellable task = schedule("rollup", interval, () -> rollup(interval, lookback));
+            lifecycle.addStopHook(() -> completedFuture(task.cancel()));
+        }
+
+        Config partitioning = config.getConfig("deviceLog.partitioning");
+        if (partitioning.getBoolean("enabled")) {
+            Duration interval = partitioning.getDuration("interval");
+            Duration retention = partitioning.getDuration("retention");
+            int daysAhead = partitioning.getInt("daysAhead");
+            Cancellable task = schedule("partitioning", interval, () -> rotatePartitions(interval, retention, daysAhead));
+            lifecycle.addStopHook(() -> completedFuture(task.cancel()));
+        }
+    }
+
+    private CompletionStage<?> rollup(Duration interval, Duration lookback) {
+        long now = System.currentTimeMillis();
+        long fromHour = (now - lookback.toMillis()) / HOUR_MILLIS * HOUR_MILLIS;
+        return deviceRepository.rollupDeviceLogs(now, interval, fromHour)
+                .thenAccept(rows -> rows.forEach((database, count) ->
+                        logger.debug("Rolled up device logs of {} from {} into {} rows", database, fromHour, count)));
+    }
+
+    private CompletionStage<?> rotatePartitions(Duration interval, Duration retention, int daysAhead) {
+        return deviceRepository.maintainDeviceLogPartitions(System.currentTimeMillis(), interval, retention, daysAhead)
+                .thenAccept(plans -> plans.forEach((database, plan) -> {
+                    if (!plan.partitioned) {
+                        logger.warn("device_log of {} is not partitioned, run conf/partition-device-log.sql first", database);
+                    } else {
+                        logger.info("Dropped device_log partitions {} of {}, created {}", plan.expired, database, plan.upcoming.keySet());
+                    }
+                }));
+    }
+
+    /**
+     * Run the task at the given interval, a run is skipped while the previous one is still going
+     */
+    private Cancellable schedule(String name, Duration interval, Supplier<CompletionStage<?>> task) {
+        AtomicBoolean running = new AtomicBoolean();
+        return actorSystem.scheduler().scheduleWithFixedDelay(interval, interval, () -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            task.get().whenComplete((result, error) -> {
+                if (error != null) {
+                    logger.error("Device log " + name + " failed", error);
+                }
+                running.set(false);
+            });
+        }, actorSystem.dispatcher());
+    }
+}
@@ -0,0 +1,69 @@
+package jpa;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans the daily range partitions of device_log on update_at. Partition
+ * <code>pYYYYMMDD</code> holds the logs of that day in UTC, and the
+ * catch-all partition <code>pmax</code> holds the logs beyond the last day.
+ * Nothing is planned for a device_log that is not partitioned.
+ */
+public class DeviceLogPartitions {
+
+    static final String CATCH_ALL = "pmax";
+
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
+
+    // false if device_log has no partitions
+    final boolean partitioned;
+
+    // partition names to be dropped, in order
+    final List<String> expired = new ArrayList<>();
+
+    // partition names to be split from the catch-all partition, with their upper bounds, in order
+    final Map<String, Long> upcoming = new LinkedHashMap<>();
+
+    /**
+     * @param partitions existing partition names with their upper bounds in millis, in order,
+     *                   empty if device_log is not partitioned; the bound of the catch-all partition is ignored
+     * @param now current time in millis
+     * @param retention how long the logs are kept
+     * @param daysAhead number of days after today to create the partitions for
+     */
+    DeviceLogPartitions(Map<String, Long> partitions, long now, Duration retention, int daysAhead) {
+        this.partitioned = !partitions.isEmpty();
+        if (!partitioned) {
+            return;
+        }
+
+        long cutoff = now - retention.toMillis();
+        long lastBound = Long.MIN_VALUE;
+
+        for (Map.Entry<String, Long> partition : partitions.entrySet()) {
+            if (CATCH_ALL.equals(partition.getKey())) {
+                continue;
+            }
+            // a partition only holds logs older than its upper bound
+            if (partition.getValue() <= cutoff) {
+                expired.add(partition.getKey());
+            }
+            lastBound = Math.max(lastBound, partition.getValue());
+        }
+
+        LocalDate today = Instant.ofEpochMilli(now).atZone(ZoneOffset.UTC).toLocalDate();
+        for (LocalDate day = today; !day.isAfter(today.plusDays(daysAhead)); day = day.plusDays(1)) {
+            long bound = day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            if (bound > lastBound) {
+                upcoming.put(day.format(NAME_FORMAT), bound);
+            }
+        }
+    }
+}
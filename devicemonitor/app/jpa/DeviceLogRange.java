@@ -0,0 +1,26 @@
+package jpa;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Device logs to export: the logs of the given devices, or of all devices,
+ * updated within a time range.
+ */
+public class DeviceLogRange {
+
+    // ids of the devices, all devices if empty
+    public final List<Long> deviceIds;
+
+    // update time in millis the range starts at, inclusive
+    public final long from;
+
+    // update time in millis the range ends at, exclusive
+    public final long to;
+
+    public DeviceLogRange(List<Long> deviceIds, long from, long to) {
+        this.deviceIds = deviceIds == null ? Collections.emptyList() : deviceIds;
+        this.from = from;
+        this.to = to;
+    }
+}
@@ -1,27 +1,50 @@
 package jpa;
 
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import com.google.inject.ImplementedBy;
 import jpa.models.Customer;
 import jpa.models.Device;
 import jpa.models.DeviceLog;
+import jpa.models.DeviceLogHourly;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.CompletionStage;
-import java.util.stream.Stream;
 
 @ImplementedBy(JPADeviceRepository.class)
 public interface DeviceRepository {
 
     CompletionStage<Customer> addCustomer(Customer customer);
 
-    CompletionStage<Stream<Customer>> listCustomers();
+    Source<Customer, NotUsed> listCustomers(Long after);
 
-    CompletionStage<Stream<Device>> listDevices();
+    CompletionStage<List<Customer>> listCustomers(Long after, int limit);
+
+    Source<Device, NotUsed> listDevices(DeviceFilter filter, Long after);
+
+    CompletionStage<List<Device>> listDevices(DeviceFilter filter, Long after, int limit);
 
     CompletionStage<Device> addDevice(Device device);
 
-    CompletionStage<Long> removeDevice(Long id);
+    CompletionStage<List<Device>> addDevices(List<Device> devices);
+
+    CompletionStage<Optional<Long>> removeDevice(Long id);
 
     CompletionStage<DeviceLog> updateDeviceLog(DeviceLog log);
 
+    CompletionStage<List<DeviceLog>> updateDeviceLogs(List<DeviceLog> logs);
+
     CompletionStage<DeviceLog> checkDeviceLog(Long deviceId);
+
+    Source<DeviceStatusChange, NotUsed> subscribeDeviceStatuses();
+
+    OptionalLong fleetVersion();
+
+    Source<DeviceLog, NotUsed> exportDeviceLogs(DeviceLogRange range);
+
+    FleetSummary fleetSummary(Long customerId);
+
+    CompletionStage<List<DeviceLogHourly>> listDeviceLogRollups(Long deviceId, long from, long to);
 }
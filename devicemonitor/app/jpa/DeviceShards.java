@@ -0,0 +1,84 @@
+package jpa;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import metrics.MetricsRegistry;
+import play.db.DBApi;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Shards of the devices and their logs when database.shards.enabled is set.
+ * Each shard is a datasource db.(name) with its own pool, brought to the schema
+ * of the default database, and has its own execution context configured under
+ * database.shards.nodes.(name). Devices are placed by consistent hashing of their id.
+ */
+@Singleton
+public class DeviceShards {
+
+    // persistence unit of the shards, its datasource is given per shard
+    private static final String PERSISTENCE_UNIT = "shardPersistenceUnit";
+
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+    private final ShardRing ring;
+
+    @Inject
+    public DeviceShards(Config config, DBApi dbApi, ActorSystem actorSystem, MetricsRegistry metrics, ApplicationLifecycle lifecycle) {
+        if (!config.getBoolean("database.shards.enabled")) {
+            this.ring = null;
+            return;
+        }
+
+        List<String> names = new ArrayList<>(config.getConfig("database.shards.nodes").root().keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            Database database = dbApi.getDatabase(name);
+            ShardEvolutionsReader.applyEvolutions(database, getClass().getClassLoader());
+
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("javax.persistence.nonJtaDataSource", database.getDataSource());
+            // the shards share the cache manager, their query caches must not answer for each other
+            properties.put("hibernate.cache.region_prefix", "shard." + name);
+            EntityManagerFactory emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT, properties);
+            shards.put(name, new Shard(name, database, emf, new DbExecuteContext(actorSystem, config, metrics, "database.shards.nodes." + name)));
+        }
+        this.ring = new ShardRing(names, config.getInt("database.shards.virtualNodes"));
+
+        lifecycle.addStopHook(() -> {
+            shards.values().forEach(Shard::close);
+            return completedFuture(null);
+        });
+    }
+
+    boolean enabled() {
+        return ring != null;
+    }
+
+    /**
+     * Find the shard of a device
+     *
+     * @param deviceId device id
+     * @return shard that holds the device and its logs
+     */
+    Shard forDevice(Long deviceId) {
+        return shards.get(ring.shardOf(deviceId));
+    }
+
+    Collection<Shard> all() {
+        return shards.values();
+    }
+}
@@ -0,0 +1,20 @@
+package jpa;
+
+/**
+ * A change of the status of a device, as pushed to the dashboard.
+ * A removed device has the status INVALID.
+ */
+public class DeviceStatusChange {
+
+    public final Long id;
+
+    public final String status;
+
+    public final Long updateAt;
+
+    public DeviceStatusChange(Long id, String status, Long updateAt) {
+        this.id = id;
+        this.status = status;
+        this.updateAt = updateAt;
+    }
+}
@@ -0,0 +1,125 @@
+package jpa;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.japi.pf.PFBuilder;
+import akka.stream.BufferOverflowException;
+import akka.stream.Graph;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.SourceShape;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.typesafe.config.Config;
+import metrics.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Broadcasts the status changes of the devices persisted by this node to
+ * the subscribed dashboards. Like the device table, a change is sent when
+ * the status of a device changes, and at least once per heartbeat to
+ * refresh its update time. The status sent last expires after the heartbeat,
+ * so only the devices that reported within one heartbeat are kept.
+ *
+ * Every subscriber has its own buffer. A subscriber that lets its buffer
+ * overflow is completed, instead of slowing down the others or silently
+ * missing changes, so that it reconnects and loads the devices again.
+ */
+class DeviceStatusHub {
+
+    private static final String STAT_INVALID = "INVALID";
+
+    private final SourceQueueWithComplete<DeviceStatusChange> queue;
+    private final Source<DeviceStatusChange, NotUsed> changes;
+    // status sent last per device
+    private final Cache<Long, String> sent;
+    private final int subscriberBufferSize;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param config the <code>deviceStatus.push</code> configuration
+     * @param heartbeatMillis interval to send an unchanged status again
+     * @param materializer to run the broadcast
+     * @param metrics registry of the subscriber gauge and the drop counter
+     */
+    DeviceStatusHub(Config config, long heartbeatMillis, Materializer materializer, MetricsRegistry metrics) {
+        this.sent = Caffeine.newBuilder()
+                .expireAfterWrite(heartbeatMillis, TimeUnit.MILLISECONDS)
+                .build();
+        this.subscriberBufferSize = config.getInt("subscriberBufferSize");
+
+        int bufferSize = config.getInt("bufferSize");
+        Pair<SourceQueueWithComplete<DeviceStatusChange>, Source<DeviceStatusChange, NotUsed>> hub = Source
+                .<DeviceStatusChange>queue(bufferSize, OverflowStrategy.dropHead())
+                .toMat(BroadcastHub.of(DeviceStatusChange.class, bufferSize), Keep.both())
+                .run(materializer);
+        this.queue = hub.first();
+        this.changes = hub.second();
+        // the hub holds back changes while nobody listens, drain it so that new subscribers start with fresh changes
+        changes.runWith(Sink.ignore(), materializer);
+
+        metrics.gauge("status_push_subscribers", "Dashboards subscribed to the device status changes.", subscribers::get);
+        metrics.counter("status_push_dropped_total", "Subscribers completed because they fell behind the device status changes.", dropped::sum);
+    }
+
+    /**
+     * Publish the status of a device reported by a persisted log,
+     * if it changed or the heartbeat interval has passed
+     *
+     * @param deviceId device id
+     * @param status reported status
+     */
+    void reported(Long deviceId, String status) {
+        if (!status.equals(sent.getIfPresent(deviceId))) {
+            sent.put(deviceId, status);
+            queue.offer(new DeviceStatusChange(deviceId, status, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Publish the removal of a device
+     *
+     * @param deviceId device id
+     */
+    void removed(Long deviceId) {
+        sent.invalidate(deviceId);
+        queue.offer(new DeviceStatusChange(deviceId, STAT_INVALID, System.currentTimeMillis()));
+    }
+
+    /**
+     * Subscribe to the status changes published from now on
+     *
+     * @return the status changes, completed when the subscriber falls behind
+     */
+    Source<DeviceStatusChange, NotUsed> subscribe() {
+        return changes
+                .buffer(subscriberBufferSize, OverflowStrategy.fail())
+                .recoverWithRetries(1, new PFBuilder<Throwable, Graph<SourceShape<DeviceStatusChange>, NotUsed>>()
+                        .match(BufferOverflowException.class, e -> {
+                            dropped.increment();
+                            return Source.empty();
+                        })
+                        .build())
+                .watchTermination((notUsed, done) -> {
+                    subscribers.incrementAndGet();
+                    done.whenComplete((d, error) -> subscribers.decrementAndGet());
+                    return notUsed;
+                });
+    }
+
+    /**
+     * Stop publishing, the subscribers are completed
+     */
+    void complete() {
+        queue.complete();
+    }
+}
@@ -0,0 +1,81 @@
+package jpa;
+
+import jpa.models.DeviceLog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the reported status of the devices with a jdbc batch, on the connection
+ * of either ingest executor, SqlExecutor or JdbcIngestExecutor
+ */
+final class DeviceStatusUpdate {
+
+    // keep in line with hibernate.jdbc.batch_size in persistence.xml
+    static final int BATCH_SIZE = 50;
+
+    static final String[] DEVICE_TABLE = {"device"};
+
+    // the database decides whether the device row is written: when the status changes, or on heartbeat,
+    // so that it holds whichever node wrote the row before
+    private static final String UPDATE_DEVICE_STATUS = "update device set status = ?, update_at = ? "
+            + "where id = ? and (status is null or status <> ? or update_at <= ?)";
+
+    private DeviceStatusUpdate() {
+    }
+
+    /**
+     * Update the status of the devices to the last one reported in the logs
+     *
+     * @param connection connection of the transaction
+     * @param logs device logs
+     * @param updateAt update time to be written, in millis
+     * @param heartbeatMillis a device row older than this is written even if its status is unchanged
+     * @return the devices written, with their status, in the order of the logs
+     * @throws SQLException if the update fails
+     */
+    static Map<Long, String> updateDevices(Connection connection, List<DeviceLog> logs, long updateAt, long heartbeatMillis)
+            throws SQLException {
+        // only the last reported status of each device ends up in the device table
+        Map<Long, String> statuses = new LinkedHashMap<>();
+        for (DeviceLog log : logs) {
+            statuses.put(log.deviceId, log.status);
+        }
+
+        Map<Long, String> written = new LinkedHashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE_DEVICE_STATUS)) {
+            List<Long> batch = new ArrayList<>(BATCH_SIZE);
+            for (Map.Entry<Long, String> status : statuses.entrySet()) {
+                statement.setString(1, status.getValue());
+                statement.setLong(2, updateAt);
+                statement.setLong(3, status.getKey());
+                statement.setString(4, status.getValue());
+                statement.setLong(5, updateAt - heartbeatMillis);
+                statement.addBatch();
+                batch.add(status.getKey());
+
+                if (batch.size() == BATCH_SIZE) {
+                    written(statement.executeBatch(), batch, statuses, written);
+                }
+            }
+            written(statement.executeBatch(), batch, statuses, written);
+        }
+        return written;
+    }
+
+    // a device that does not exist, or whose row is up to date, is not written, a count
+    // the driver does not report, e.g. for a rewritten batch, is taken as written
+    private static void written(int[] counts, List<Long> batch, Map<Long, String> statuses, Map<Long, String> written) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                written.put(batch.get(i), statuses.get(batch.get(i)));
+            }
+        }
+        batch.clear();
+    }
+}
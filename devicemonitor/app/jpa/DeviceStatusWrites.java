@@ -0,0 +1,84 @@
+package jpa;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the status writes of the device rows this node has committed, to
+ * tell whether a write changed the fleet, and holds the heartbeat after which
+ * an unchanged status is written again.
+ *
+ * The database decides whether a device row is written, with a conditional
+ * update, so the writes recorded here are only the ones of this node. A write
+ * is asked about right after it is recorded, so it expires after a minute,
+ * which bounds the writes kept to the devices written within that minute.
+ */
+@Singleton
+public class DeviceStatusWrites {
+
+    private static final Duration EXPIRE_AFTER_WRITE = Duration.ofMinutes(1);
+
+    private final long heartbeatMillis;
+    // update time of the last write per device
+    private final Cache<Long, Long> writes;
+
+    @Inject
+    public DeviceStatusWrites(Config config) {
+        this(config.getDuration("ingest.statusHeartbeat").toMillis());
+    }
+
+    DeviceStatusWrites(long heartbeatMillis) {
+        this(heartbeatMillis, Ticker.systemTicker());
+    }
+
+    DeviceStatusWrites(long heartbeatMillis, Ticker ticker) {
+        this.heartbeatMillis = heartbeatMillis;
+        this.writes = Caffeine.newBuilder()
+                .expireAfterWrite(EXPIRE_AFTER_WRITE.toNanos(), TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    long heartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    /**
+     * Record a committed write of the device row, unless a later one is
+     * recorded already, e.g. by a transaction that committed first
+     *
+     * @param deviceId device id
+     * @param updateAt written update time
+     */
+    void written(Long deviceId, long updateAt) {
+        writes.asMap().merge(deviceId, updateAt, Math::max);
+    }
+
+    /**
+     * Check if the device row has been written since the given time
+     *
+     * @param deviceId device id
+     * @param since time in millis
+     * @return true if the recorded update time is not before the given time
+     */
+    boolean writtenSince(Long deviceId, long since) {
+        Long updateAt = writes.getIfPresent(deviceId);
+        return updateAt != null && updateAt >= since;
+    }
+
+    /**
+     * Forget the writes of the device, e.g. when the device row is changed by other means
+     *
+     * @param deviceId device id
+     */
+    void forget(Long deviceId) {
+        writes.invalidate(deviceId);
+    }
+}
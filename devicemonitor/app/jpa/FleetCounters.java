@@ -0,0 +1,193 @@
+package jpa;
+
+import jpa.models.Device;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the valid devices by status, over the whole fleet and per customer,
+ * in memory. The counters are loaded from the devices in db, and moved along
+ * with the devices added, removed and reporting another status, so that the
+ * summary is read without going to db.
+ *
+ * The status of every device is kept, to know which counters a reported status
+ * moves, and the customer of a removed device, to count it again if it reports.
+ * A change is applied under the lock of its device, so the changes of one
+ * device are counted in order, and the counters are striped adders, so that the
+ * devices reporting at the same time do not contend on them.
+ */
+class FleetCounters {
+
+    // counted for the devices without a status
+    static final String UNKNOWN = "UNKNOWN";
+
+    private final ConcurrentHashMap<Long, DeviceState> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<String, LongAdder>> customers = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    /**
+     * Count a device read from db while loading, unless a change of the device
+     * has been counted meanwhile, which is more recent than the read. Only the
+     * customer is taken from the read if the change did not know it.
+     *
+     * @param device device read from db
+     */
+    void load(Device device) {
+        devices.compute(device.id, (id, state) -> {
+            if (state == null) {
+                DeviceState read = new DeviceState(device.customerId, status(device.status));
+                count(read, 1);
+                return read;
+            }
+            if (state.removed || state.customerId != null) {
+                return state;
+            }
+            count(state, -1);
+            DeviceState placed = new DeviceState(device.customerId, state.status);
+            count(placed, 1);
+            return placed;
+        });
+    }
+
+    /**
+     * Mark the counters as loaded
+     */
+    void loaded() {
+        loaded = true;
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    void added(Device device) {
+        devices.compute(device.id, (id, state) -> {
+            uncount(state);
+            DeviceState added = new DeviceState(device.customerId, status(device.status));
+            count(added, 1);
+            return added;
+        });
+    }
+
+    /**
+     * Move the device to the reported status. A device that is not counted, e.g.
+     * removed, or added by another node, is counted again if the report wrote its
+     * row, which the device then exists in. The customer of a device added by
+     * another node is left to the next load.
+     *
+     * @param deviceId device id
+     * @param status reported status
+     * @param written whether the report wrote the device row
+     */
+    void reported(Long deviceId, String status, boolean written) {
+        devices.compute(deviceId, (id, state) -> {
+            if (state == null || state.removed) {
+                if (!written) {
+                    return state;
+                }
+                DeviceState revived = new DeviceState(state == null ? null : state.customerId, status(status));
+                count(revived, 1);
+                return revived;
+            }
+            if (state.status.equals(status(status))) {
+                return state;
+            }
+            count(state, -1);
+            DeviceState reported = new DeviceState(state.customerId, status(status));
+            count(reported, 1);
+            return reported;
+        });
+    }
+
+    void removed(Long deviceId) {
+        devices.compute(deviceId, (id, state) -> {
+            uncount(state);
+            // the device is remembered as removed, so that it is not loaded from a stale read,
+            // and is counted for its customer if it reports again
+            return DeviceState.removed(state == null ? null : state.customerId);
+        });
+    }
+
+    /**
+     * Summarize the counters
+     *
+     * @param customerId id of the customer to summarize, or null for the whole fleet and every customer
+     * @return the number of devices by status
+     */
+    FleetSummary summary(Long customerId) {
+        if (customerId != null) {
+            Map<String, Long> customerStatuses = sum(customers.getOrDefault(customerId, new ConcurrentHashMap<>()));
+            return new FleetSummary(total(customerStatuses), customerStatuses, Collections.singletonMap(customerId, customerStatuses));
+        }
+
+        Map<Long, Map<String, Long>> customerSummaries = new TreeMap<>();
+        customers.forEach((id, counters) -> {
+            Map<String, Long> customerStatuses = sum(counters);
+            if (total(customerStatuses) > 0) {
+                customerSummaries.put(id, customerStatuses);
+            }
+        });
+        Map<String, Long> fleetStatuses = sum(statuses);
+        return new FleetSummary(total(fleetStatuses), fleetStatuses, customerSummaries);
+    }
+
+    private void uncount(DeviceState state) {
+        if (state != null && !state.removed) {
+            count(state, -1);
+        }
+    }
+
+    private void count(DeviceState state, int delta) {
+        statuses.computeIfAbsent(state.status, status -> new LongAdder()).add(delta);
+        if (state.customerId != null) {
+            customers.computeIfAbsent(state.customerId, id -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(state.status, status -> new LongAdder())
+                    .add(delta);
+        }
+    }
+
+    private static Map<String, Long> sum(Map<String, LongAdder> counters) {
+        Map<String, Long> sums = new TreeMap<>();
+        counters.forEach((status, counter) -> {
+            long sum = counter.sum();
+            if (sum > 0) {
+                sums.put(status, sum);
+            }
+        });
+        return sums;
+    }
+
+    private static long total(Map<String, Long> statuses) {
+        return statuses.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private static String status(String status) {
+        return status == null ? UNKNOWN : status;
+    }
+
+    private static class DeviceState {
+
+        final Long customerId;
+        final String status;
+        final boolean removed;
+
+        DeviceState(Long customerId, String status) {
+            this(customerId, status, false);
+        }
+
+        private DeviceState(Long customerId, String status, boolean removed) {
+            this.customerId = customerId;
+            this.status = status;
+            this.removed = removed;
+        }
+
+        static DeviceState removed(Long customerId) {
+            return new DeviceState(customerId, null, true);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package jpa;
+
+import java.util.Map;
+
+/**
+ * Number of valid devices by status, over the whole fleet and per customer
+ */
+public class FleetSummary {
+
+    public final long total;
+
+    // number of devices by status
+    public final Map<String, Long> statuses;
+
+    // number of devices by status, by customer id
+    public final Map<Long, Map<String, Long>> customers;
+
+    public FleetSummary(long total, Map<String, Long> statuses, Map<Long, Map<String, Long>> customers) {
+        this.total = total;
+        this.statuses = statuses;
+        this.customers = customers;
+    }
+}
@@ -0,0 +1,104 @@
+package jpa;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique ids for customers, devices and device logs without a
+ * round trip to the db. An id is laid out as
+ * <pre>
+ *   | 41 bits millis since 2021-01-01 | 10 bits node id | 12 bits sequence |
+ * </pre>
+ * so that ids from different app nodes never collide, and ids of the same
+ * node keep increasing. The millis and sequence of the last id are kept in
+ * one atomic long, which is advanced by compare-and-set. When the sequence
+ * runs out within a millisecond, or the clock goes backwards, the next
+ * millisecond is borrowed instead of waiting for the clock.
+ *
+ * Without <code>idGenerator.nodeId</code> the node id is 0, which only keeps
+ * the ids unique on a single node, so it fails to start when
+ * <code>idGenerator.nodes</code> expects more.
+ */
+@Singleton
+public class IdGenerator {
+
+    static final long EPOCH = 1609459200000L;
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final Logger logger = LoggerFactory.getLogger(IdGenerator.class);
+
+    private final long nodeId;
+    // millis since epoch << SEQUENCE_BITS | sequence, of the last generated id
+    private final AtomicLong last = new AtomicLong();
+
+    @Inject
+    public IdGenerator(Config config) {
+        this(nodeId(config.getConfig("idGenerator")));
+    }
+
+    IdGenerator(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("node id should be between 0 and " + MAX_NODE_ID + ", but is " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Read the node id
+     *
+     * @param config the <code>idGenerator</code> configuration
+     * @return the configured node id, or 0 for a single node
+     * @throws IllegalStateException if no node id is configured while several nodes are expected
+     */
+    static long nodeId(Config config) {
+        if (config.hasPath("nodeId")) {
+            return config.getLong("nodeId");
+        }
+
+        int nodes = config.getInt("nodes");
+        if (nodes > 1) {
+            throw new IllegalStateException("idGenerator.nodeId should be set, e.g. with NODE_ID, when " + nodes + " nodes are expected");
+        }
+        logger.warn("idGenerator.nodeId is not set, taking node id 0, which is only unique on a single node");
+        return 0;
+    }
+
+    /**
+     * Get the lowest id that can be generated at the given time, on any node
+     *
+     * @param millis time in millis
+     * @return the lowest id of that millisecond
+     */
+    static long firstIdAt(long millis) {
+        return (millis - EPOCH) << (NODE_BITS + SEQUENCE_BITS);
+    }
+
+    /**
+     * Generate the next id
+     *
+     * @return a unique id
+     */
+    public long nextId() {
+        while (true) {
+            long previous = last.get();
+            long millis = System.currentTimeMillis() - EPOCH;
+            // a new millisecond restarts the sequence, otherwise the sequence is
+            // incremented, and overflows into the next millisecond when it runs out
+            long next = millis > previous >>> SEQUENCE_BITS ? millis << SEQUENCE_BITS : previous + 1;
+
+            if (last.compareAndSet(previous, next)) {
+                return (next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)
+                        | nodeId << SEQUENCE_BITS
+                        | next & SEQUENCE_MASK;
+            }
+        }
+    }
+}
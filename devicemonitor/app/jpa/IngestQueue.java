@@ -0,0 +1,144 @@
+package jpa;
+
+import akka.Done;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import com.typesafe.config.Config;
+import jpa.models.DeviceLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * A bounded buffer of device logs in front of the db. The buffered logs are
+ * persisted in batches, a batch is flushed when it is full or when the flush
+ * interval has passed. A log is rejected when the buffer is full, instead of
+ * waiting for a db thread.
+ *
+ * A log without a device id or status is rejected up front. If a batch fails
+ * anyway, its logs are persisted again one by one, so that one bad log only
+ * fails itself and not the logs batched with it.
+ */
+public class IngestQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestQueue.class);
+
+    private final SourceQueueWithComplete<PendingLog> queue;
+    private final CompletionStage<Done> drained;
+    private final boolean durable;
+    private final Duration retryAfter;
+
+    /**
+     * @param config the <code>ingest.queue</code> configuration
+     * @param materializer to run the flushing stream
+     * @param flush function that persists a batch of logs in one transaction
+     */
+    IngestQueue(Config config, Materializer materializer, Function<List<DeviceLog>, CompletionStage<List<DeviceLog>>> flush) {
+        this.durable = "durable".equals(config.getString("ack"));
+        this.retryAfter = config.getDuration("retryAfter");
+
+        Pair<SourceQueueWithComplete<PendingLog>, CompletionStage<Done>> stream = Source
+                .<PendingLog>queue(config.getInt("bufferSize"), OverflowStrategy.dropNew())
+                .groupedWithin(config.getInt("batchSize"), config.getDuration("flushInterval"))
+                .mapAsync(1, batch -> flush(batch, flush))
+                .toMat(Sink.ignore(), Keep.both())
+                .run(materializer);
+        this.queue = stream.first();
+        this.drained = stream.second();
+    }
+
+    /**
+     * Add a log to the buffer
+     *
+     * @param log to be persisted
+     * @return the log, completed once it is buffered or once it is persisted,
+     * depending on the configured ack; failed with IngestRejectedException
+     * if the buffer is full, or with IllegalArgumentException if the log
+     * misses its device id or status
+     */
+    CompletionStage<DeviceLog> offer(DeviceLog log) {
+        if (log.deviceId == null || log.status == null) {
+            CompletableFuture<DeviceLog> invalid = new CompletableFuture<>();
+            invalid.completeExceptionally(new IllegalArgumentException("device log without device id or status"));
+            return invalid;
+        }
+
+        PendingLog pending = new PendingLog(log);
+        return queue.offer(pending).thenCompose(result -> {
+            if (result != QueueOfferResult.enqueued()) {
+                CompletableFuture<DeviceLog> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(new IngestRejectedException(retryAfter));
+                return rejected;
+            }
+            return durable ? pending.persisted : completedFuture(log);
+        });
+    }
+
+    /**
+     * Stop taking new logs, and flush the logs that are still buffered
+     *
+     * @return completed once the buffer is drained
+     */
+    CompletionStage<Done> drain() {
+        queue.complete();
+        return drained;
+    }
+
+    private CompletionStage<Done> flush(List<PendingLog> batch, Function<List<DeviceLog>, CompletionStage<List<DeviceLog>>> flush) {
+        List<DeviceLog> logs = batch.stream().map(pending -> pending.log).collect(Collectors.toList());
+        return persist(logs, flush).handle((persisted, error) -> {
+            if (error == null) {
+                batch.forEach(pending -> pending.persisted.complete(pending.log));
+                return completedFuture(Done.getInstance());
+            }
+            if (batch.size() == 1) {
+                logger.error("Failed to persist the device log of device " + logs.get(0).deviceId, error);
+                batch.get(0).persisted.completeExceptionally(error);
+                return completedFuture(Done.getInstance());
+            }
+
+            logger.warn("Failed to persist a batch of " + logs.size() + " device logs, persisting them one by one", error);
+            CompletionStage<Done> retried = completedFuture(Done.getInstance());
+            for (PendingLog pending : batch) {
+                retried = retried.thenCompose(done -> flush(Collections.singletonList(pending), flush));
+            }
+            return retried;
+        }).thenCompose(Function.identity());
+    }
+
+    // a flush that throws instead of returning a failed stage would fail the stream, and every later offer
+    private static CompletionStage<List<DeviceLog>> persist(List<DeviceLog> logs, Function<List<DeviceLog>, CompletionStage<List<DeviceLog>>> flush) {
+        try {
+            return flush.apply(logs);
+        } catch (RuntimeException e) {
+            CompletableFuture<List<DeviceLog>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private static class PendingLog {
+
+        final DeviceLog log;
+        final CompletableFuture<DeviceLog> persisted = new CompletableFuture<>();
+
+        PendingLog(DeviceLog log) {
+            this.log = log;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package jpa;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a device log can not be accepted because the ingest buffer
+ * is full, the client should retry after the given delay.
+ */
+public class IngestRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public IngestRejectedException(Duration retryAfter) {
+        super("ingest buffer is full, retry after " + retryAfter.getSeconds() + "s");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
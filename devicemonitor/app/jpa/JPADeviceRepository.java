@@ -1,29 +1,148 @@
 package jpa;
 
+import akka.NotUsed;
+import akka.actor.Cancellable;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
 import jpa.models.Customer;
 import jpa.models.Device;
 import jpa.models.DeviceLog;
+import jpa.models.DeviceLogHourly;
+import metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.db.Database;
 import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Stream;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.CompletableFuture.supplyAsync;
 
+@Singleton
 public class JPADeviceRepository implements DeviceRepository{
 
+    private static final Logger logger = LoggerFactory.getLogger(JPADeviceRepository.class);
+
+    // name of the persistence unit of the read replica, as configured by jpa.replica
+    private static final String REPLICA = "replica";
+
+    // maintenance tasks claimed in maintenance_run, see conf/evolutions/default/7.sql
+    private static final String ROLLUP_RUN = "rollup";
+    private static final String PARTITIONING_RUN = "partitioning";
+
     private final JPAApi jpaApi;
     private final DbExecuteContext execContext;
+    private final ReplicaExecuteContext replicaContext;
+    private final DeviceShards shards;
     private final SqlExecutor sqlExecutor;
+    // writes the device logs with plain jdbc if ingest.executor is "jdbc", on the default
+    // database and its persistence unit unless the devices are sharded
+    private final JdbcIngestExecutor jdbcIngest;
+    private final Database database;
+    private final EntityManagerFactory emf;
+    private final DeviceStatusWrites statusWrites;
+    private final DeviceLogCache deviceLogCache;
+    private final int pageSize;
+    private final IngestQueue ingestQueue;
+    private final MetricsRegistry metrics;
+    private final ReplicaPolicy replicaPolicy;
+    private final DeviceStatusHub statusHub;
+    // starts from the startup time, so that it keeps increasing across restarts
+    private final AtomicLong fleetVersion = new AtomicLong(System.currentTimeMillis() << 20);
+    // the version only sees the changes made by this node
+    private final boolean singleNode;
+    private final AtomicBoolean fleetChangedSinceTick = new AtomicBoolean();
+    private volatile boolean replicaCatchUp;
+
+    private final Materializer materializer;
+    // counters of the fleet summary, and the ones being loaded from db to replace them
+    private volatile FleetCounters fleetCounters = new FleetCounters();
+    private volatile FleetCounters loadingCounters;
+    private final AtomicBoolean fleetCountersLoading = new AtomicBoolean();
 
     @Inject
-    public JPADeviceRepository (JPAApi jpaApi, DbExecuteContext execContext) {
+    public JPADeviceRepository (JPAApi jpaApi, Database database, DbExecuteContext execContext, ReplicaExecuteContext replicaContext,
+                                DeviceShards shards, IdGenerator idGenerator, DeviceStatusWrites statusWrites,
+                                DeviceLogCache deviceLogCache, Config config, Materializer materializer, ApplicationLifecycle lifecycle,
+                                MetricsRegistry metrics) {
         this.jpaApi = jpaApi;
         this.execContext = execContext;
-        this.sqlExecutor = new SqlExecutor();
+        this.replicaContext = replicaContext;
+        this.shards = shards;
+        this.sqlExecutor = new SqlExecutor(idGenerator, statusWrites, config.getBoolean("database.queryCache"));
+        this.database = database;
+        if ("jdbc".equals(config.getString("ingest.executor"))) {
+            this.jdbcIngest = new JdbcIngestExecutor(statusWrites);
+            this.emf = entityManagerFactory(jpaApi);
+        } else {
+            this.jdbcIngest = null;
+            this.emf = null;
+        }
+        this.statusWrites = statusWrites;
+        this.deviceLogCache = deviceLogCache;
+        this.pageSize = config.getInt("database.pageSize");
+        this.singleNode = config.getInt("idGenerator.nodes") <= 1;
+        this.metrics = metrics;
+        this.replicaPolicy = config.getBoolean("database.replica.enabled") ? new ReplicaPolicy(config.getConfig("database.replica")) : null;
+        this.materializer = materializer;
+
+        if (replicaPolicy != null) {
+            // a listing read from the replica may miss the latest changes, the version is increased
+            // again once the replica has caught up, so that such a listing is not taken as current
+            Duration lag = config.getDuration("database.replica.readYourWritesWindow");
+            Cancellable catchUp = materializer.system().scheduler()
+                    .scheduleWithFixedDelay(lag, lag, this::replicaCaughtUp, materializer.executionContext());
+            lifecycle.addStopHook(() -> {
+                catchUp.cancel();
+                return completedFuture(null);
+            });
+        }
+
+        this.statusHub = new DeviceStatusHub(config.getConfig("deviceStatus.push"),
+                config.getDuration("ingest.statusHeartbeat").toMillis(), materializer, metrics);
+        lifecycle.addStopHook(() -> {
+            statusHub.complete();
+            return completedFuture(null);
+        });
+
+        if ("queued".equals(config.getString("ingest.mode"))) {
+            this.ingestQueue = new IngestQueue(config.getConfig("ingest.queue"), materializer, this::writeDeviceLogs);
+            lifecycle.addStopHook(ingestQueue::drain);
+        } else {
+            this.ingestQueue = null;
+        }
+
+        // the counters are loaded at startup, and again at every interval to count the changes of the other nodes
+        Duration refresh = config.getDuration("fleetSummary.refreshInterval");
+        Cancellable loadCounters = materializer.system().scheduler()
+                .scheduleWithFixedDelay(Duration.ZERO, refresh, this::loadFleetCounters, materializer.executionContext());
+        lifecycle.addStopHook(() -> completedFuture(loadCounters.cancel()));
     }
 
     /**
@@ -34,27 +153,89 @@ public class JPADeviceRepository implements DeviceRepository{
      */
     @Override
     public CompletionStage<Customer> addCustomer(Customer customer) {
-        return supplyAsync(() -> wrap(em -> sqlExecutor.insertCustomer(em, customer)), execContext);
+        return supplyAsync(() -> wrap("addCustomer", em -> sqlExecutor.insertCustomer(em, customer)), execContext)
+                .thenApply(customerAdded -> {
+                    if (replicaPolicy != null) {
+                        replicaPolicy.customersWritten(System.currentTimeMillis());
+                    }
+                    return customerAdded;
+                });
     }
 
     /**
-     * Select existing customers from db
+     * Stream existing customers from db, one page at a time,
+     * from the read replica if the replica policy allows
      *
+     * @param after id of the customer to start after, or null to start from the first customer
+     * @return source of existing customers
+     */
+    @Override
+    public Source<Customer, NotUsed> listCustomers(Long after) {
+        boolean fromReplica = readCustomersFromReplica();
+        return scroll(after, last -> read("listCustomers", fromReplica, em -> sqlExecutor.listCustomers(em, last, pageSize)), customer -> customer.id);
+    }
+
+    /**
+     * Select one page of existing customers from db,
+     * from the read replica if the replica policy allows
+     *
+     * @param after id of the customer to start after, or null to start from the first customer
+     * @param limit max number of customers in the page
      * @return list of existing customers
      */
     @Override
-    public CompletionStage<Stream<Customer>> listCustomers() {
-        return supplyAsync(() -> wrap(em -> sqlExecutor.listCustomers(em)), execContext);
+    public CompletionStage<List<Customer>> listCustomers(Long after, int limit) {
+        return read("listCustomers", readCustomersFromReplica(), em -> sqlExecutor.listCustomers(em, cursor(after), limit));
     }
 
     /**
-     * Select existing and valid devices from db
+     * Stream existing and valid devices from db, one page at a time,
+     * from the read replica if the replica policy allows. With shards,
+     * the devices of all shards are merged in id order.
      *
+     * @param filter conditions the devices should match
+     * @param after id of the device to start after, or null to start from the first device
+     * @return source of existing and valid devices
+     */
+    @Override
+    public Source<Device, NotUsed> listDevices(DeviceFilter filter, Long after) {
+        if (shards.enabled()) {
+            return shards.all().stream()
+                    .map(shard -> scroll(after, last -> onShard(shard, "listDevices", em -> sqlExecutor.listDevices(em, filter, last, pageSize)),
+                            device -> device.id))
+                    .reduce((merged, shard) -> merged.mergeSorted(shard, Comparator.comparing(device -> device.id)))
+                    .get();
+        }
+
+        boolean fromReplica = readDevicesFromReplica();
+        return scroll(after, last -> read("listDevices", fromReplica, em -> sqlExecutor.listDevices(em, filter, last, pageSize)), device -> device.id);
+    }
+
+    /**
+     * Select one page of existing and valid devices from db,
+     * from the read replica if the replica policy allows. With shards,
+     * the page is selected from all shards in parallel and merged.
+     *
+     * @param filter conditions the devices should match
+     * @param after id of the device to start after, or null to start from the first device
+     * @param limit max number of devices in the page
      * @return list of existing and valid devices
      */
     @Override
-    public CompletionStage<Stream<Device>> listDevices() {
-        return supplyAsync(() -> wrap(em -> sqlExecutor.listDevices(em)), execContext);
+    public CompletionStage<List<Device>> listDevices(DeviceFilter filter, Long after, int limit) {
+        if (!shards.enabled()) {
+            return read("listDevices", readDevicesFromReplica(), em -> sqlExecutor.listDevices(em, filter, cursor(after), limit));
+        }
+
+        List<CompletableFuture<List<Device>>> pages = shards.all().stream()
+                .map(shard -> onShard(shard, "listDevices", em -> sqlExecutor.listDevices(em, filter, cursor(after), limit)).toCompletableFuture())
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(pages.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> pages.stream()
+                        .flatMap(page -> page.join().stream())
+                        .sorted(Comparator.comparing(device -> device.id))
+                        .limit(limit)
+                        .collect(Collectors.toList()));
     }
 
     /**
@@ -65,43 +246,531 @@ public class JPADeviceRepository implements DeviceRepository{
      */
     @Override
     public CompletionStage<Device> addDevice(Device device) {
-        return supplyAsync(() -> wrap(em -> sqlExecutor.insertDevice(em, device)), execContext);
+        // the id is assigned up front, so that the device can be placed on its shard
+        return onDevice("addDevice", sqlExecutor.assignId(device).id, em -> sqlExecutor.insertDevice(em, device))
+                .thenApply(deviceAdded -> {
+                    devicesWritten();
+                    fleetChanged();
+                    countFleet(counters -> counters.added(deviceAdded));
+                    return deviceAdded;
+                });
+    }
+
+    /**
+     * Persist a batch of new devices into db, within one transaction,
+     * or one transaction per shard
+     *
+     * @param devices to be persisted
+     * @return the persisted devices
+     */
+    @Override
+    public CompletionStage<List<Device>> addDevices(List<Device> devices) {
+        // the ids are assigned up front, so that the devices can be placed on their shards
+        devices.forEach(sqlExecutor::assignId);
+        return onDevices("addDevices", devices, device -> device.id, sqlExecutor::insertDevices)
+                .thenApply(devicesAdded -> {
+                    devicesWritten();
+                    fleetChanged();
+                    countFleet(counters -> devicesAdded.forEach(counters::added));
+                    return devicesAdded;
+                });
     }
 
     /**
      * Update device status to 'INVALID' in db
      *
      * @param id device id to be updated
-     * @return device id
+     * @return device id, or empty if there is no such device
      */
     @Override
-    public CompletionStage<Long> removeDevice(Long id) {
-        return supplyAsync(() -> wrap(em -> sqlExecutor.removeDevice(em, id)), execContext);
+    public CompletionStage<Optional<Long>> removeDevice(Long id) {
+        return onDevice("removeDevice", id, em -> sqlExecutor.removeDevice(em, id))
+                .thenApply(removed -> {
+                    removed.ifPresent(deviceId -> {
+                        devicesWritten();
+                        fleetChanged();
+                        statusHub.removed(deviceId);
+                        countFleet(counters -> counters.removed(deviceId));
+                    });
+                    return removed;
+                });
     }
 
     /**
-     * Persist a new device log and update device status into db
+     * Persist a new device log and update device status into db. In the
+     * queued ingest mode, the log is buffered and persisted with the next batch.
      *
      * @param log to be persisted
      * @return the persisted device log
      */
     @Override
     public CompletionStage<DeviceLog> updateDeviceLog(DeviceLog log) {
-        return supplyAsync(() -> wrap(em -> sqlExecutor.updateDeviceLog(em, log)), execContext);
+        // the id is assigned by the server, up front, so that a queued log can be acknowledged before it is persisted
+        sqlExecutor.assignId(log);
+        if (ingestQueue != null) {
+            return ingestQueue.offer(log);
+        }
+
+        long start = System.currentTimeMillis();
+        CompletionStage<DeviceLog> written = jdbcIngest != null
+                ? updateDeviceLogsWithJdbc("updateDeviceLog", Collections.singletonList(log)).thenApply(logs -> logs.get(0))
+                : onDevice("updateDeviceLog", log.deviceId, em -> sqlExecutor.updateDeviceLog(em, log));
+        return written
+                .thenApply(logAdded -> {
+                    deviceLogCache.put(logAdded);
+                    deviceWritten(logAdded.deviceId);
+                    statusHub.reported(logAdded.deviceId, logAdded.status);
+                    boolean rowWritten = statusWrites.writtenSince(logAdded.deviceId, start);
+                    countFleet(counters -> counters.reported(logAdded.deviceId, logAdded.status, rowWritten));
+                    if (rowWritten) {
+                        fleetChanged();
+                    }
+                    return logAdded;
+                });
+    }
+
+    /**
+     * Persist a batch of device logs and update the device status into db,
+     * within one transaction
+     *
+     * @param logs to be persisted
+     * @return the persisted device logs
+     */
+    @Override
+    public CompletionStage<List<DeviceLog>> updateDeviceLogs(List<DeviceLog> logs) {
+        logs.forEach(sqlExecutor::assignId);
+        return writeDeviceLogs(logs);
+    }
+
+    // the logs have their ids assigned, by updateDeviceLogs or before they are queued
+    private CompletionStage<List<DeviceLog>> writeDeviceLogs(List<DeviceLog> logs) {
+        long start = System.currentTimeMillis();
+        CompletionStage<List<DeviceLog>> written = jdbcIngest != null
+                ? updateDeviceLogsWithJdbc("updateDeviceLogs", logs)
+                : onDevices("updateDeviceLogs", logs, log -> log.deviceId, sqlExecutor::updateDeviceLogs);
+        return written
+                .thenApply(logsAdded -> {
+                    logsAdded.forEach(deviceLogCache::put);
+                    logsAdded.forEach(logAdded -> deviceWritten(logAdded.deviceId));
+                    logsAdded.forEach(logAdded -> statusHub.reported(logAdded.deviceId, logAdded.status));
+                    Set<Long> rowsWritten = logsAdded.stream()
+                            .map(logAdded -> logAdded.deviceId)
+                            .filter(deviceId -> statusWrites.writtenSince(deviceId, start))
+                            .collect(Collectors.toSet());
+                    countFleet(counters -> logsAdded.forEach(logAdded ->
+                            counters.reported(logAdded.deviceId, logAdded.status, rowsWritten.contains(logAdded.deviceId))));
+                    if (!rowsWritten.isEmpty()) {
+                        fleetChanged();
+                    }
+                    return logsAdded;
+                });
     }
 
     /**
-     * Select the latest updated log of the device from db
+     * Select the latest updated log of the device from the cache,
+     * or from db if the device is not cached, from the read replica
+     * if the replica policy allows
      *
      * @param deviceId device id
      * @return the latest device log
      */
     @Override
     public CompletionStage<DeviceLog> checkDeviceLog(Long deviceId) {
-        return supplyAsync(() -> wrap(em -> sqlExecutor.checkDeviceLog(em, deviceId)), execContext);
+        DeviceLog cached = deviceLogCache.get(deviceId);
+        if (cached != null) {
+            return completedFuture(cached);
+        }
+
+        CompletionStage<DeviceLog> latest;
+        if (shards.enabled()) {
+            latest = onDevice("checkDeviceLog", deviceId, em -> sqlExecutor.checkDeviceLog(em, deviceId));
+        } else {
+            boolean fromReplica = replicaPolicy != null && replicaPolicy.readDevice(deviceId, System.currentTimeMillis());
+            latest = read("checkDeviceLog", fromReplica, em -> sqlExecutor.checkDeviceLog(em, deviceId));
+        }
+        return latest
+                .thenApply(log -> {
+                    if (log != null) {
+                        deviceLogCache.put(log);
+                    }
+                    return log;
+                });
+    }
+
+    /**
+     * Stream the device logs updated within a time range, ordered by update time
+     * and id, device by device for the given devices. The logs are paged through
+     * with a keyset cursor on (update_at, id), each page in its own transaction
+     * when the downstream asks for more logs, so that only one page is held in
+     * memory at a time and no transaction stays open for the whole export.
+     * The pages are read from the read replica if it is enabled, to keep the
+     * exports off the primary that takes the ingest. With shards, the logs of
+     * all devices are merged from the shards in update time order.
+     *
+     * @param range devices and time range of the logs
+     * @return source of the device logs in the range
+     */
+    @Override
+    public Source<DeviceLog, NotUsed> exportDeviceLogs(DeviceLogRange range) {
+        if (!range.deviceIds.isEmpty()) {
+            return Source.from(range.deviceIds)
+                    .flatMapConcat(deviceId -> scrollByTime(range, (afterUpdateAt, afterId) -> shards.enabled()
+                            ? onDevice("exportDeviceLogs", deviceId, em -> sqlExecutor.listDeviceLogs(em, deviceId, afterUpdateAt, afterId, range.to, pageSize))
+                            : read("exportDeviceLogs", replicaPolicy != null, em -> sqlExecutor.listDeviceLogs(em, deviceId, afterUpdateAt, afterId, range.to, pageSize))));
+        }
+
+        if (shards.enabled()) {
+            Comparator<DeviceLog> byTime = Comparator.<DeviceLog, Long>comparing(log -> log.updateAt).thenComparing(log -> log.id);
+            return shards.all().stream()
+                    .map(shard -> scrollByTime(range, (afterUpdateAt, afterId) -> onShard(shard, "exportDeviceLogs",
+                            em -> sqlExecutor.listDeviceLogs(em, null, afterUpdateAt, afterId, range.to, pageSize))))
+                    .reduce((merged, shard) -> merged.mergeSorted(shard, byTime))
+                    .get();
+        }
+        return scrollByTime(range, (afterUpdateAt, afterId) -> read("exportDeviceLogs", replicaPolicy != null,
+                em -> sqlExecutor.listDeviceLogs(em, null, afterUpdateAt, afterId, range.to, pageSize)));
+    }
+
+    /**
+     * Subscribe to the status changes of the devices persisted by this node,
+     * from the device logs and the removals
+     *
+     * @return the status changes, completed if the subscriber falls behind
+     */
+    @Override
+    public Source<DeviceStatusChange, NotUsed> subscribeDeviceStatuses() {
+        return statusHub.subscribe();
+    }
+
+    /**
+     * Version of the listed devices, which increases after every committed
+     * change of a device row made by this node, so that a listing is known
+     * to be unchanged while the version is the same. Behind a load balancer
+     * the other nodes change devices unseen, so there is no version if
+     * <code>idGenerator.nodes</code> is more than 1.
+     *
+     * @return current fleet version, or empty if several nodes are configured
+     */
+    @Override
+    public OptionalLong fleetVersion() {
+        return singleNode ? OptionalLong.of(fleetVersion.get()) : OptionalLong.empty();
+    }
+
+    /**
+     * Summarize the valid devices by status, from the counters in memory,
+     * without going to db
+     *
+     * @param customerId id of the customer to summarize, or null for the whole fleet and every customer
+     * @return the number of devices by status, or null while the counters are first loaded
+     */
+    @Override
+    public FleetSummary fleetSummary(Long customerId) {
+        FleetCounters counters = fleetCounters;
+        return counters.isLoaded() ? counters.summary(customerId) : null;
+    }
+
+    /**
+     * Select the hourly rollups of the device logs from db
+     *
+     * @param deviceId device id
+     * @param from start of the first hour, in millis
+     * @param to end of the last hour, in millis
+     * @return list of hourly rollups, ordered by hour and status
+     */
+    @Override
+    public CompletionStage<List<DeviceLogHourly>> listDeviceLogRollups(Long deviceId, long from, long to) {
+        return onDevice("listDeviceLogRollups", deviceId, em -> sqlExecutor.listDeviceLogRollups(em, deviceId, from, to));
+    }
+
+    /**
+     * Recompute the hourly rollups of the hours that got new logs since the previous
+     * rollup, from the given hour on, on every database holding device logs whose
+     * rollup has not run within the interval, e.g. on another app node
+     *
+     * @param now current time in millis
+     * @param interval interval of the rollup
+     * @param fromHour start of the first hour to be recomputed, in millis
+     * @return number of rollup rows written, by the name of the database rolled up by this node
+     */
+    public CompletionStage<Map<String, Integer>> rollupDeviceLogs(long now, Duration interval, long fromHour) {
+        return onDeviceLogDatabases("rollupDeviceLogs", em -> sqlExecutor.claimMaintenanceRun(em, ROLLUP_RUN, now, interval)
+                // the logs are taken from one interval before the previous run on, so that the
+                // logs committed a while after their id was assigned are rolled up as well
+                .map(previous -> sqlExecutor.rollupDeviceLogs(em, fromHour, IdGenerator.firstIdAt(previous - interval.toMillis()))));
+    }
+
+    /**
+     * Drop the partitions of device_log that are out of the retention, and create
+     * the partitions of the coming days, on every database holding device logs
+     * whose partitions have not been maintained within the interval
+     *
+     * @param now current time in millis
+     * @param interval interval of the partition maintenance
+     * @param retention how long the logs are kept
+     * @param daysAhead number of days after today to create the partitions for
+     * @return the partitions dropped and created, by the name of the database maintained by this node
+     */
+    public CompletionStage<Map<String, DeviceLogPartitions>> maintainDeviceLogPartitions(long now, Duration interval, Duration retention, int daysAhead) {
+        return onDeviceLogDatabases("maintainDeviceLogPartitions", em -> sqlExecutor.claimMaintenanceRun(em, PARTITIONING_RUN, now, interval)
+                .map(previous -> {
+                    // every partition change commits on its own in MySQL
+                    DeviceLogPartitions plan = new DeviceLogPartitions(sqlExecutor.listDeviceLogPartitions(em), now, retention, daysAhead);
+                    plan.expired.forEach(name -> sqlExecutor.dropDeviceLogPartition(em, name));
+                    plan.upcoming.forEach((name, bound) -> sqlExecutor.addDeviceLogPartition(em, name, bound));
+                    return plan;
+                }));
+    }
+
+    /**
+     * Run the function in a transaction on every database holding device logs,
+     * i.e. on every shard, or on the primary if devices are not sharded
+     *
+     * @param method name of the repository method
+     * @param function function to run with the entity manager, empty if it has nothing to report
+     * @return the results of the function, by database name
+     */
+    private <T> CompletionStage<Map<String, T>> onDeviceLogDatabases(String method, Function<EntityManager, Optional<T>> function) {
+        Map<String, CompletableFuture<Optional<T>>> results = new LinkedHashMap<>();
+        if (!shards.enabled()) {
+            results.put(database.getName(), supplyAsync(() -> wrap(method, function), execContext));
+        } else {
+            shards.all().forEach(shard -> results.put(shard.name, onShard(shard, method, function).toCompletableFuture()));
+        }
+
+        return CompletableFuture.allOf(results.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> {
+                    Map<String, T> reported = new LinkedHashMap<>();
+                    results.forEach((name, result) -> result.join().ifPresent(value -> reported.put(name, value)));
+                    return reported;
+                });
+    }
+
+    /**
+     * Page through a table by id, each page is fetched in its own transaction
+     * on the db execution context when the downstream asks for more elements,
+     * so that only one page is held in memory at a time
+     *
+     * @param after id to start after, or null to start from the first element
+     * @param page function that selects the page after the given id
+     * @param id function that returns the id of an element
+     * @return source of all the elements in id order
+     */
+    private <T> Source<T, NotUsed> scroll(Long after, Function<Long, CompletionStage<List<T>>> page, Function<T, Long> id) {
+        return Source.unfoldAsync(cursor(after), last ->
+                page.apply(last)
+                        .thenApply(elements -> elements.isEmpty()
+                                ? Optional.<Pair<Long, List<T>>>empty()
+                                : Optional.of(Pair.create(id.apply(elements.get(elements.size() - 1)), elements))))
+                .mapConcat(elements -> elements);
+    }
+
+    /**
+     * Page through the device logs of a time range by (update_at, id), each page
+     * is fetched when the downstream asks for more logs, see scroll
+     *
+     * @param range time range of the logs
+     * @param page function that selects the page after the given update time and id
+     * @return source of the device logs in update time and id order
+     */
+    private static Source<DeviceLog, NotUsed> scrollByTime(DeviceLogRange range, BiFunction<Long, Long, CompletionStage<List<DeviceLog>>> page) {
+        return Source.unfoldAsync(Pair.create(range.from, Long.MIN_VALUE), last ->
+                page.apply(last.first(), last.second())
+                        .thenApply(logs -> {
+                            if (logs.isEmpty()) {
+                                return Optional.<Pair<Pair<Long, Long>, List<DeviceLog>>>empty();
+                            }
+                            DeviceLog lastLog = logs.get(logs.size() - 1);
+                            return Optional.of(Pair.create(Pair.create(lastLog.updateAt, lastLog.id), logs));
+                        }))
+                .mapConcat(logs -> logs);
+    }
+
+    private static Long cursor(Long after) {
+        return after == null ? Long.MIN_VALUE : after;
+    }
+
+    private boolean readCustomersFromReplica() {
+        return replicaPolicy != null && replicaPolicy.readCustomers(System.currentTimeMillis());
+    }
+
+    private boolean readDevicesFromReplica() {
+        return replicaPolicy != null && replicaPolicy.readDevices(System.currentTimeMillis());
+    }
+
+    private void fleetChanged() {
+        fleetVersion.incrementAndGet();
+        fleetChangedSinceTick.set(true);
+    }
+
+    // runs every replication lag, the changes seen at one tick have reached the replica by the next one
+    private void replicaCaughtUp() {
+        if (replicaCatchUp) {
+            fleetVersion.incrementAndGet();
+        }
+        replicaCatchUp = fleetChangedSinceTick.getAndSet(false);
+    }
+
+    /**
+     * Load the fleet counters from the devices in db, the counters in use keep
+     * being moved by the changes meanwhile, and are replaced once the load is done.
+     * A load is skipped while the previous one is still going.
+     */
+    private void loadFleetCounters() {
+        if (!fleetCountersLoading.compareAndSet(false, true)) {
+            return;
+        }
+        // a first load that failed is resumed on the same counters
+        FleetCounters loading = fleetCounters.isLoaded() ? new FleetCounters() : fleetCounters;
+        loadingCounters = loading;
+        listDevices(DeviceFilter.ALL, null)
+                .runWith(Sink.foreach(loading::load), materializer)
+                .whenComplete((done, error) -> {
+                    if (error == null) {
+                        loading.loaded();
+                        fleetCounters = loading;
+                    } else {
+                        logger.error("Loading the fleet counters failed", error);
+                    }
+                    loadingCounters = null;
+                    fleetCountersLoading.set(false);
+                });
+    }
+
+    // the counters being loaded are read first, so that a change is not missed by both when they replace the others
+    private void countFleet(Consumer<FleetCounters> change) {
+        FleetCounters loading = loadingCounters;
+        FleetCounters counters = fleetCounters;
+        change.accept(counters);
+        if (loading != null && loading != counters) {
+            change.accept(loading);
+        }
+    }
+
+    private void devicesWritten() {
+        if (replicaPolicy != null) {
+            replicaPolicy.devicesWritten(System.currentTimeMillis());
+        }
+    }
+
+    private void deviceWritten(Long deviceId) {
+        if (replicaPolicy != null) {
+            replicaPolicy.deviceWritten(deviceId, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Run the function in a transaction on the shard of the device,
+     * or on the primary if devices are not sharded
+     *
+     * @param method name of the repository method
+     * @param deviceId id of the device the function works on
+     * @param function function to run with the entity manager
+     * @return result of the function
+     */
+    private <T> CompletionStage<T> onDevice(String method, Long deviceId, Function<EntityManager, T> function) {
+        if (shards.enabled()) {
+            return onShard(shards.forDevice(deviceId), method, function);
+        }
+        return supplyAsync(() -> wrap(method, function), execContext);
+    }
+
+    /**
+     * Run the function in a transaction per shard, on the elements of the shard,
+     * or in one transaction on the primary if devices are not sharded.
+     * The shards are written in parallel, and do not roll back each other.
+     *
+     * @param method name of the repository method
+     * @param elements elements to be written
+     * @param deviceId id of the device of an element
+     * @param function function to run with the entity manager, on the elements of a shard
+     * @return results of the function, grouped by shard
+     */
+    private <T> CompletionStage<List<T>> onDevices(String method, List<T> elements, Function<T, Long> deviceId,
+                                                   BiFunction<EntityManager, List<T>, List<T>> function) {
+        return onDevices(elements, deviceId,
+                all -> supplyAsync(() -> wrap(method, em -> function.apply(em, all)), execContext),
+                (shard, shardElements) -> onShard(shard, method, em -> function.apply(em, shardElements)));
+    }
+
+    /**
+     * Persist the device logs and update the device status with plain jdbc, in one
+     * transaction per shard, or in one transaction on the primary if devices are not sharded
+     *
+     * @param method name of the repository method
+     * @param logs device logs to be persisted
+     * @return the persisted device logs, grouped by shard
+     */
+    private CompletionStage<List<DeviceLog>> updateDeviceLogsWithJdbc(String method, List<DeviceLog> logs) {
+        return onDevices(logs, log -> log.deviceId,
+                all -> supplyAsync(() -> timed(method, () -> jdbcIngest.updateDeviceLogs(database, emf, all)), execContext),
+                (shard, shardLogs) -> supplyAsync(() -> timed(method + "." + shard.name,
+                        () -> jdbcIngest.updateDeviceLogs(shard.database, shard.emf, shardLogs)), shard.executor));
+    }
+
+    private <T> CompletionStage<List<T>> onDevices(List<T> elements, Function<T, Long> deviceId,
+                                                   Function<List<T>, CompletionStage<List<T>>> onPrimary,
+                                                   BiFunction<Shard, List<T>, CompletionStage<List<T>>> onShard) {
+        if (!shards.enabled()) {
+            return onPrimary.apply(elements);
+        }
+
+        Map<Shard, List<T>> elementsByShard = elements.stream()
+                .collect(Collectors.groupingBy(element -> shards.forDevice(deviceId.apply(element)), LinkedHashMap::new, Collectors.toList()));
+        List<CompletableFuture<List<T>>> written = elementsByShard.entrySet().stream()
+                .map(entry -> onShard.apply(entry.getKey(), entry.getValue()).toCompletableFuture())
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> written.stream()
+                        .flatMap(shardElements -> shardElements.join().stream())
+                        .collect(Collectors.toList()));
+    }
+
+    private <T> CompletionStage<T> onShard(Shard shard, String method, Function<EntityManager, T> function) {
+        return supplyAsync(() -> timed(method + "." + shard.name, () -> shard.withTransaction(function)), shard.executor);
+    }
+
+    /**
+     * Run a read on the execution context of the primary or of the read replica
+     *
+     * @param method name of the repository method
+     * @param fromReplica true to read from the read replica
+     * @param function function to run with the entity manager
+     * @return result of the function
+     */
+    private <T> CompletionStage<T> read(String method, boolean fromReplica, Function<EntityManager, T> function) {
+        if (fromReplica) {
+            return supplyAsync(() -> timed(method + ".replica", () -> jpaApi.withTransaction(REPLICA, true, function)), replicaContext);
+        }
+        return supplyAsync(() -> wrap(method, function), execContext);
+    }
+
+    /**
+     * Run the function in a transaction, timed under the given method
+     *
+     * @param method name of the repository method
+     * @param function function to run with the entity manager
+     * @return result of the function
+     */
+    private <T> T wrap(String method, Function<EntityManager, T> function) {
+        return timed(method, () -> jpaApi.withTransaction(function));
+    }
+
+    private static EntityManagerFactory entityManagerFactory(JPAApi jpaApi) {
+        EntityManager em = jpaApi.em("default");
+        try {
+            return em.getEntityManagerFactory();
+        } finally {
+            em.close();
+        }
     }
 
-    private <T> T wrap(Function<EntityManager, T> function) {
-        return jpaApi.withTransaction(function);
+    private <T> T timed(String method, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            metrics.histogram("repository_duration_seconds", "Time of the repository methods inside their transaction", "method", method)
+                    .recordSince(start);
+        }
     }
 }
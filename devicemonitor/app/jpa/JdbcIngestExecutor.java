@@ -0,0 +1,106 @@
+package jpa;
+
+import jpa.models.Device;
+import jpa.models.DeviceLog;
+import org.hibernate.StatelessSession;
+import org.hibernate.cache.spi.CacheImplementor;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import play.db.Database;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the device logs and the device status with plain jdbc statements on a
+ * pooled connection, without an entity manager, so that a device log costs one
+ * update and one insert, without the persistence context, the dirty checking and
+ * the jpql translation. The rows written are the same as the ones of SqlExecutor.
+ *
+ * Selected with <code>ingest.executor = "jdbc"</code>.
+ */
+class JdbcIngestExecutor {
+
+    private static final String INSERT_DEVICE_LOG =
+            "insert into device_log (id, device_id, status, execution_hours, error, update_at) values (?, ?, ?, ?, ?, ?)";
+
+    private final DeviceStatusWrites statusWrites;
+
+    JdbcIngestExecutor(DeviceStatusWrites statusWrites) {
+        this.statusWrites = statusWrites;
+    }
+
+    /**
+     * Persist the device logs and update the device status in one transaction,
+     * the devices written are evicted from the second level cache of the persistence unit
+     * over the same database, as SqlExecutor does for its jdbc batch
+     *
+     * @param database database to be written
+     * @param emf persistence unit over the database
+     * @param logs device logs with their ids assigned
+     * @return the persisted device logs
+     */
+    List<DeviceLog> updateDeviceLogs(Database database, EntityManagerFactory emf, List<DeviceLog> logs) {
+        SessionFactoryImplementor factory = emf.unwrap(SessionFactoryImplementor.class);
+        // a stateless session does not take a connection until it runs a statement, it is only
+        // needed by the timestamps cache
+        long updateAt = System.currentTimeMillis();
+        try (StatelessSession session = factory.openStatelessSession()) {
+            Map<Long, String> written = database.withTransaction(connection -> {
+                Map<Long, String> updated = DeviceStatusUpdate.updateDevices(connection, logs, updateAt, statusWrites.heartbeatMillis());
+                evictDevices(factory, (SharedSessionContractImplementor) session, updated.keySet(), false);
+                insertDeviceLogs(connection, logs);
+                return updated;
+            });
+            evictDevices(factory, (SharedSessionContractImplementor) session, written.keySet(), true);
+            // only a committed status is recorded
+            written.keySet().forEach(deviceId -> statusWrites.written(deviceId, updateAt));
+        }
+        return logs;
+    }
+
+    private static void insertDeviceLogs(Connection connection, List<DeviceLog> logs) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_DEVICE_LOG)) {
+            for (int i = 0; i < logs.size(); i++) {
+                DeviceLog log = logs.get(i);
+                statement.setLong(1, log.id);
+                statement.setObject(2, log.deviceId, Types.BIGINT);
+                statement.setString(3, log.status);
+                statement.setInt(4, log.executionHours);
+                statement.setString(5, log.error);
+                statement.setObject(6, log.updateAt, Types.BIGINT);
+                statement.addBatch();
+
+                if ((i + 1) % DeviceStatusUpdate.BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Evict the written devices from the second level cache, and invalidate the cached
+     * queries on the device table, before the write and again once it is committed
+     */
+    private static void evictDevices(SessionFactoryImplementor factory, SharedSessionContractImplementor session,
+                                     Collection<Long> deviceIds, boolean committed) {
+        if (deviceIds.isEmpty() || !factory.getSessionFactoryOptions().isSecondLevelCacheEnabled()) {
+            return;
+        }
+
+        CacheImplementor cache = factory.getCache();
+        deviceIds.forEach(deviceId -> cache.evictEntityData(Device.class, deviceId));
+        if (committed) {
+            cache.getTimestampsCache().invalidate(DeviceStatusUpdate.DEVICE_TABLE, session);
+        } else {
+            cache.getTimestampsCache().preInvalidate(DeviceStatusUpdate.DEVICE_TABLE, session);
+        }
+    }
+}
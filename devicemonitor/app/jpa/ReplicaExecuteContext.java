@@ -0,0 +1,19 @@
+package jpa;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import metrics.MetricsRegistry;
+
+import javax.inject.Inject;
+
+/**
+ * Execution context of the reads routed to the read replica, configured under
+ * database.replica, so that reads do not queue behind the writes on the primary.
+ */
+public class ReplicaExecuteContext extends DbExecuteContext {
+
+    @Inject
+    public ReplicaExecuteContext(ActorSystem actorSystem, Config config, MetricsRegistry metrics) {
+        super(actorSystem, config, metrics, "database.replica");
+    }
+}
@@ -0,0 +1,95 @@
+package jpa;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.typesafe.config.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a read can be served by the read replica, given the configured
+ * consistency. With "eventual" every routed read goes to the replica. With
+ * "read-your-writes" a read goes to the primary while a write it should see may
+ * not be replicated yet: the check of a device shortly after the device posted a log,
+ * or a listing shortly after a customer or device was added or removed.
+ *
+ * The writes of at most <code>maxTrackedDevices</code> devices are tracked, each for
+ * the window; beyond that some devices are read from the replica again before
+ * their window has passed.
+ */
+class ReplicaPolicy {
+
+    static final String EVENTUAL = "eventual";
+    static final String READ_YOUR_WRITES = "read-your-writes";
+
+    private final boolean readYourWrites;
+    private final long windowMillis;
+
+    // time of the last write per device, and of the last change of the customer and device lists
+    private final Cache<Long, Long> deviceWrites;
+    private volatile long customersWrittenAt = 0;
+    private volatile long devicesWrittenAt = 0;
+
+    ReplicaPolicy(Config config) {
+        this(config.getString("consistency"), config.getDuration("readYourWritesWindow").toMillis(), config.getInt("maxTrackedDevices"));
+    }
+
+    ReplicaPolicy(String consistency, long windowMillis, int maxTrackedDevices) {
+        if (!EVENTUAL.equals(consistency) && !READ_YOUR_WRITES.equals(consistency)) {
+            throw new IllegalArgumentException("database.replica.consistency should be "
+                    + EVENTUAL + " or " + READ_YOUR_WRITES + ", but was " + consistency);
+        }
+        this.readYourWrites = READ_YOUR_WRITES.equals(consistency);
+        this.windowMillis = windowMillis;
+        this.deviceWrites = Caffeine.newBuilder()
+                .maximumSize(maxTrackedDevices)
+                .expireAfterWrite(windowMillis, TimeUnit.MILLISECONDS)
+                // evict on the writing thread, so that the size stays bounded under a burst of writes
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * Record a committed write of the logs or status of a device
+     *
+     * @param deviceId device id
+     * @param now current time in millis
+     */
+    void deviceWritten(Long deviceId, long now) {
+        if (!readYourWrites) {
+            return;
+        }
+        deviceWrites.put(deviceId, now);
+    }
+
+    void customersWritten(long now) {
+        customersWrittenAt = now;
+    }
+
+    void devicesWritten(long now) {
+        devicesWrittenAt = now;
+    }
+
+    /**
+     * Check if the latest log of a device can be read from the replica
+     *
+     * @param deviceId device id
+     * @param now current time in millis
+     * @return false if the device was written within the window
+     */
+    boolean readDevice(Long deviceId, long now) {
+        if (!readYourWrites) {
+            return true;
+        }
+        Long writtenAt = deviceWrites.getIfPresent(deviceId);
+        return writtenAt == null || now - writtenAt >= windowMillis;
+    }
+
+    boolean readCustomers(long now) {
+        return !readYourWrites || now - customersWrittenAt >= windowMillis;
+    }
+
+    boolean readDevices(long now) {
+        return !readYourWrites || now - devicesWrittenAt >= windowMillis;
+    }
+}
@@ -0,0 +1,55 @@
+package jpa;
+
+import play.db.Database;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.util.function.Function;
+
+/**
+ * One shard of the devices and their logs, with its own persistence unit
+ * over the pool of its datasource, and its own execution context.
+ */
+class Shard {
+
+    final String name;
+    final DbExecuteContext executor;
+    final Database database;
+    final EntityManagerFactory emf;
+
+    Shard(String name, Database database, EntityManagerFactory emf, DbExecuteContext executor) {
+        this.name = name;
+        this.database = database;
+        this.emf = emf;
+        this.executor = executor;
+    }
+
+    /**
+     * Run the function in a transaction on the shard, which is rolled back if the function fails
+     *
+     * @param function function to run with the entity manager
+     * @return result of the function
+     */
+    <T> T withTransaction(Function<EntityManager, T> function) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            T result = function.apply(em);
+            tx.commit();
+            return result;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    void close() {
+        emf.close();
+    }
+}
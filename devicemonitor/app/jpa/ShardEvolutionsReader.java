@@ -0,0 +1,83 @@
+package jpa;
+
+import play.api.db.DBApi;
+import play.api.db.Database;
+import play.api.db.evolutions.ApplicationEvolutions;
+import play.api.db.evolutions.DefaultEvolutionsApi;
+import play.api.db.evolutions.DefaultEvolutionsDatasourceConfig;
+import play.api.db.evolutions.Evolution;
+import play.api.db.evolutions.EvolutionsApi;
+import play.api.db.evolutions.EvolutionsDatasourceConfig;
+import play.api.db.evolutions.EvolutionsReader;
+import play.db.evolutions.Evolutions;
+import scala.collection.Seq;
+import scala.jdk.javaapi.CollectionConverters;
+import scala.runtime.BoxedUnit;
+
+import java.util.Collections;
+
+/**
+ * Reads the evolutions of the default database for every shard,
+ * so that the shards get the schema of device and device_log from
+ * the same scripts under conf/evolutions/default, and applies them
+ * to a shard under the lock of its play_evolutions_lock table.
+ */
+class ShardEvolutionsReader implements EvolutionsReader {
+
+    // enabled, in the default schema, autocommit, with locks, applying the ups, never the downs
+    private static final EvolutionsDatasourceConfig LOCKED =
+            new DefaultEvolutionsDatasourceConfig(true, "", true, true, true, false, false);
+
+    private final EvolutionsReader scripts;
+
+    ShardEvolutionsReader(ClassLoader classLoader) {
+        this.scripts = Evolutions.fromClassLoader(classLoader);
+    }
+
+    @Override
+    public Seq<Evolution> evolutions(String db) {
+        return scripts.evolutions("default");
+    }
+
+    /**
+     * Apply the evolutions to a shard the way play.evolutions.db.default.useLocks does for
+     * the default database: one node at a time holds play_evolutions_lock of the shard,
+     * the nodes waiting on it find the evolutions applied once they get it
+     *
+     * @param database shard database
+     * @param classLoader class loader of the scripts
+     */
+    static void applyEvolutions(play.db.Database database, ClassLoader classLoader) {
+        EvolutionsApi evolutions = new DefaultEvolutionsApi(new SingleDatabase(database.asScala()));
+        ApplicationEvolutions.runEvolutions(database.asScala(), datasource -> LOCKED, evolutions, new ShardEvolutionsReader(classLoader),
+                (db, config, schema, scripts, hasDown, autocommit) -> {
+                    evolutions.evolve(db, scripts, config.autocommit(), schema);
+                    return BoxedUnit.UNIT;
+                });
+    }
+
+    // the evolutions api of play looks its database up by name
+    private static class SingleDatabase implements DBApi {
+
+        private final Database database;
+
+        SingleDatabase(Database database) {
+            this.database = database;
+        }
+
+        @Override
+        public scala.collection.immutable.Seq<Database> databases() {
+            return CollectionConverters.asScala(Collections.singletonList(database)).toList();
+        }
+
+        @Override
+        public Database database(String name) {
+            return database;
+        }
+
+        @Override
+        public void shutdown() {
+            database.shutdown();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package jpa;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring of the shard names. Each shard is placed on the ring at
+ * a number of virtual nodes, and a device belongs to the first shard at or after
+ * the hash of its id, so that adding or removing a shard only moves the devices
+ * of the ring segments it takes over or gives up.
+ */
+class ShardRing {
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    ShardRing(Collection<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is needed");
+        }
+        for (String shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    /**
+     * Find the shard of a device
+     *
+     * @param deviceId device id
+     * @return name of the shard
+     */
+    String shardOf(long deviceId) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(mix(deviceId));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    // spread sequential and time based ids over the ring (the finalizer of SplitMix64)
+    private static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+
+    private static long hash(String node) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(node.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,73 +3,341 @@ package jpa;
 import jpa.models.Customer;
 import jpa.models.Device;
 import jpa.models.DeviceLog;
+import jpa.models.DeviceLogHourly;
+import org.hibernate.Session;
+import org.hibernate.cache.spi.CacheImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jpa.QueryHints;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Optional;
 
 public class SqlExecutor {
 
     private final String STAT_INVALID = "INVALID";
 
-    Stream<Customer> listCustomers(EntityManager em) {
-        List<Customer> customers = em.createQuery("select c from Customer c", Customer.class).getResultList();
-        return customers.stream();
+    // query cache regions of the listings, see caffeine.jcache in application.conf
+    static final String CUSTOMER_QUERIES = "customer-queries";
+    static final String DEVICE_QUERIES = "device-queries";
+
+    private final IdGenerator idGenerator;
+    private final DeviceStatusWrites statusWrites;
+    private final boolean queryCache;
+
+    SqlExecutor(IdGenerator idGenerator, DeviceStatusWrites statusWrites, boolean queryCache) {
+        this.idGenerator = idGenerator;
+        this.statusWrites = statusWrites;
+        this.queryCache = queryCache;
+    }
+
+    List<Customer> listCustomers(EntityManager em, Long after, int limit) {
+        TypedQuery<Customer> query = em.createQuery("select c from Customer c where c.id > :after order by c.id", Customer.class);
+        return cacheable(query, CUSTOMER_QUERIES).setParameter("after", after).setMaxResults(limit).getResultList();
     }
 
     Customer insertCustomer(EntityManager em, Customer customer) {
+        if (customer.id == null) {
+            customer.id = idGenerator.nextId();
+        }
         em.persist(customer);
         return customer;
     }
 
-    Stream<Device> listDevices(EntityManager em) {
-        List<Device> devices = em.createQuery("select d from Device d where d.status != 'INVALID'", Device.class).getResultList();
-        return devices.stream();
+    List<Device> listDevices(EntityManager em, DeviceFilter filter, Long after, int limit) {
+        StringBuilder jpql = new StringBuilder("select d from Device d where d.id > :after");
+        // a sync since an update time also returns the devices removed since then
+        if (filter.since != null) {
+            jpql.append(" and d.updateAt > :since");
+        } else {
+            jpql.append(" and d.status != 'INVALID'");
+        }
+        if (filter.status != null) {
+            jpql.append(" and d.status = :status");
+        }
+        if (filter.customerId != null) {
+            jpql.append(" and d.customerId = :customerId");
+        }
+        jpql.append(" order by d.id");
+
+        TypedQuery<Device> query = em.createQuery(jpql.toString(), Device.class);
+        query.setParameter("after", after);
+        if (filter.since != null) {
+            query.setParameter("since", filter.since);
+        }
+        if (filter.status != null) {
+            query.setParameter("status", filter.status);
+        }
+        if (filter.customerId != null) {
+            query.setParameter("customerId", filter.customerId);
+        }
+        return cacheable(query, DEVICE_QUERIES).setMaxResults(limit).getResultList();
     }
 
     Device insertDevice(EntityManager em, Device device) {
-        em.persist(device);
+        em.persist(assignId(device));
         return device;
     }
 
-    Long removeDevice(EntityManager em, Long id) {
-        Query query  = em.createQuery("update Device d set d.status = :status, d.updateAt = :updateAt where d.id = :id");
-        query.setParameter("status", STAT_INVALID);
-        query.setParameter("updateAt", System.currentTimeMillis());
-        query.setParameter("id", id);
+    List<Device> insertDevices(EntityManager em, List<Device> devices) {
+        for (int i = 0; i < devices.size(); i++) {
+            em.persist(assignId(devices.get(i)));
+            // flush the pending inserts as one jdbc batch, and keep the persistence context small
+            if ((i + 1) % DeviceStatusUpdate.BATCH_SIZE == 0) {
+                em.flush();
+                em.clear();
+            }
+        }
+        return devices;
+    }
 
-        int updatedEntry = query.executeUpdate();
-        // assert the sql statement is executed, and the entry is updated
-        assert(updatedEntry == 1);
+    Optional<Long> removeDevice(EntityManager em, Long id) {
+        // the device is changed as an entity rather than by a bulk update, which would evict
+        // every device from the second level cache
+        Device device = em.find(Device.class, id);
+        if (device == null) {
+            return Optional.empty();
+        }
+        device.status = STAT_INVALID;
+        device.updateAt = System.currentTimeMillis();
+        statusWrites.forget(id);
 
-        return id;
+        return Optional.of(id);
     }
 
     DeviceLog checkDeviceLog(EntityManager em, Long id) {
-        TypedQuery<DeviceLog> query = em.createQuery("select l from DeviceLog l where l.deviceId = :id order by id desc", DeviceLog.class);
-        List<DeviceLog> logs = query.setParameter("id", id).getResultList();
+        // a single row seek on the (device_id, id) index of device_log
+        TypedQuery<DeviceLog> query = em.createQuery("select l from DeviceLog l where l.deviceId = :id order by l.id desc", DeviceLog.class);
+        List<DeviceLog> logs = query.setParameter("id", id).setMaxResults(1).getResultList();
 
         return logs.size() == 0 ? null : logs.get(0);
     }
 
+    // the log ids are assigned up front, see assignId
     DeviceLog updateDeviceLog(EntityManager em, DeviceLog log) {
-        updateDevice(em, log);
+        updateDevices(em, Collections.singletonList(log));
 
         em.persist(log);
         return log;
     }
 
-    private void updateDevice(EntityManager em, DeviceLog log) {
-        Query query  = em.createQuery("update Device d set d.status = :status, d.updateAt = :updateAt where d.id = :id");
-        query.setParameter("status", log.status);
-        query.setParameter("updateAt", System.currentTimeMillis());
-        query.setParameter("id", log.deviceId);
+    List<DeviceLog> updateDeviceLogs(EntityManager em, List<DeviceLog> logs) {
+        updateDevices(em, logs);
+
+        for (int i = 0; i < logs.size(); i++) {
+            em.persist(logs.get(i));
+            // flush the pending inserts as one jdbc batch, and keep the persistence context small
+            if ((i + 1) % DeviceStatusUpdate.BATCH_SIZE == 0) {
+                em.flush();
+                em.clear();
+            }
+        }
+        return logs;
+    }
+
+    /**
+     * Select one page of the device logs in a time range, after a keyset cursor
+     * on (update_at, id), so that every page is a seek on an update_at index
+     * however deep the export goes
+     *
+     * @param em entity manager
+     * @param deviceId id of the device, or null for the logs of all devices
+     * @param afterUpdateAt update time of the last log of the previous page, or the start of the range
+     * @param afterId id of the last log of the previous page, or Long.MIN_VALUE at the start of the range
+     * @param to end of the range, exclusive
+     * @param limit max number of logs in the page
+     * @return list of device logs, ordered by update time and id
+     */
+    List<DeviceLog> listDeviceLogs(EntityManager em, Long deviceId, long afterUpdateAt, long afterId, long to, int limit) {
+        StringBuilder jpql = new StringBuilder("select l from DeviceLog l where l.updateAt >= :afterUpdateAt "
+                + "and (l.updateAt > :afterUpdateAt or l.id > :afterId) and l.updateAt < :to");
+        if (deviceId != null) {
+            jpql.append(" and l.deviceId = :deviceId");
+        }
+        jpql.append(" order by l.updateAt, l.id");
+
+        TypedQuery<DeviceLog> query = em.createQuery(jpql.toString(), DeviceLog.class);
+        query.setParameter("afterUpdateAt", afterUpdateAt).setParameter("afterId", afterId).setParameter("to", to);
+        if (deviceId != null) {
+            query.setParameter("deviceId", deviceId);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    List<DeviceLogHourly> listDeviceLogRollups(EntityManager em, Long deviceId, long from, long to) {
+        TypedQuery<DeviceLogHourly> query = em.createQuery("select h from DeviceLogHourly h where h.deviceId = :deviceId "
+                + "and h.hourStart >= :from and h.hourStart < :to order by h.hourStart, h.status", DeviceLogHourly.class);
+        return query.setParameter("deviceId", deviceId).setParameter("from", from).setParameter("to", to).getResultList();
+    }
+
+    /**
+     * Claim a run of a maintenance task, unless it has run within the interval,
+     * e.g. on another app node. The claim is part of the transaction, and is
+     * given up if the transaction is rolled back
+     *
+     * @param em entity manager
+     * @param name name of the task in maintenance_run
+     * @param now current time in millis
+     * @param interval interval of the task
+     * @return time of the previous run in millis, 0 if it never ran, or empty if the run is not claimed
+     */
+    Optional<Long> claimMaintenanceRun(EntityManager em, String name, long now, Duration interval) {
+        List<?> runAt = em.createNativeQuery("select run_at from maintenance_run where name = ?1")
+                .setParameter(1, name)
+                .getResultList();
+        long previous = ((Number) runAt.get(0)).longValue();
+        if (now - previous < interval.toMillis()) {
+            return Optional.empty();
+        }
+
+        // the row is only moved on from the run read above, a node that claimed it meanwhile wins
+        int claimed = em.createNativeQuery("update maintenance_run set run_at = ?1 where name = ?2 and run_at = ?3")
+                .setParameter(1, now)
+                .setParameter(2, name)
+                .setParameter(3, previous)
+                .executeUpdate();
+        return claimed == 1 ? Optional.of(previous) : Optional.empty();
+    }
+
+    /**
+     * Recompute the hourly rollups of the hours that got new logs, from the given hour on,
+     * and write them over the rollups of those hours, the other hours are left as they are
+     *
+     * @param em entity manager
+     * @param fromHour start of the first hour to be recomputed, in millis
+     * @param afterId only the hours of the logs with a greater id are recomputed
+     * @return number of rollup rows written, as counted by the database
+     */
+    int rollupDeviceLogs(EntityManager em, long fromHour, long afterId) {
+        // the logs only ever grow, so a recomputed hour holds every rollup row it had before
+        return em.createNativeQuery("insert into device_log_hourly "
+                + "(device_id, hour_start, status, report_count, max_execution_hours, error_count) "
+                + "select device_id, update_at - mod(update_at, 3600000), status, count(*), max(execution_hours), "
+                + "sum(case when error is null or error = '' then 0 else 1 end) "
+                + "from device_log where update_at >= ?1 and update_at - mod(update_at, 3600000) in ("
+                + "select distinct update_at - mod(update_at, 3600000) from device_log where update_at >= ?1 and id > ?2) "
+                + "group by device_id, update_at - mod(update_at, 3600000), status "
+                + "on duplicate key update report_count = values(report_count), "
+                + "max_execution_hours = values(max_execution_hours), error_count = values(error_count)")
+                .setParameter(1, fromHour)
+                .setParameter(2, afterId)
+                .executeUpdate();
+    }
+
+    /**
+     * Select the partitions of device_log (MySQL only)
+     *
+     * @param em entity manager
+     * @return partition names with their upper bounds in millis, in order
+     */
+    Map<String, Long> listDeviceLogPartitions(EntityManager em) {
+        List<?> rows = em.createNativeQuery("select partition_name, partition_description from information_schema.partitions "
+                + "where table_schema = database() and table_name = 'device_log' and partition_name is not null "
+                + "order by partition_ordinal_position")
+                .getResultList();
+
+        Map<String, Long> partitions = new LinkedHashMap<>();
+        for (Object row : rows) {
+            Object[] columns = (Object[]) row;
+            String bound = String.valueOf(columns[1]);
+            partitions.put(String.valueOf(columns[0]), "MAXVALUE".equalsIgnoreCase(bound) ? Long.MAX_VALUE : Long.parseLong(bound));
+        }
+        return partitions;
+    }
+
+    void dropDeviceLogPartition(EntityManager em, String name) {
+        em.createNativeQuery("alter table device_log drop partition " + name).executeUpdate();
+    }
+
+    void addDeviceLogPartition(EntityManager em, String name, long bound) {
+        em.createNativeQuery("alter table device_log reorganize partition " + DeviceLogPartitions.CATCH_ALL + " into ("
+                + "partition " + name + " values less than (" + bound + "), "
+                + "partition " + DeviceLogPartitions.CATCH_ALL + " values less than maxvalue)")
+                .executeUpdate();
+    }
+
+    /**
+     * Assign a generated id to the device, unless it is imported with one
+     *
+     * @param device device to be persisted
+     * @return the device with an id
+     */
+    Device assignId(Device device) {
+        if (device.id == null) {
+            device.id = idGenerator.nextId();
+        }
+        return device;
+    }
+
+    /**
+     * Assign a generated id to the log, replacing the one the device may have sent,
+     * as the latest log of a device is the one with the highest id
+     *
+     * @param log device log to be persisted
+     * @return the device log with an id
+     */
+    DeviceLog assignId(DeviceLog log) {
+        log.id = idGenerator.nextId();
+        return log;
+    }
+
+    private void updateDevices(EntityManager em, List<DeviceLog> logs) {
+        long updateAt = System.currentTimeMillis();
+        Map<Long, String> written = em.unwrap(Session.class).doReturningWork(
+                connection -> DeviceStatusUpdate.updateDevices(connection, logs, updateAt, statusWrites.heartbeatMillis()));
+        if (written.isEmpty()) {
+            return;
+        }
+
+        evictDevices(em, written.keySet());
+        // only a committed status is recorded, a rolled back one is not
+        em.unwrap(SessionImplementor.class).getActionQueue().registerProcess((success, session) -> {
+            if (success) {
+                written.keySet().forEach(deviceId -> statusWrites.written(deviceId, updateAt));
+            }
+        });
+    }
+
+    /**
+     * Evict the devices written with plain jdbc from the second level cache, and invalidate
+     * the cached queries on the device table, now and once more when the transaction
+     * completes, as hibernate does for its own bulk updates, so that a device read
+     * meanwhile is not cached in its state before the commit
+     *
+     * @param em entity manager
+     * @param deviceIds ids of the written devices
+     */
+    private static void evictDevices(EntityManager em, Collection<Long> deviceIds) {
+        SessionImplementor session = em.unwrap(SessionImplementor.class);
+        if (!session.getFactory().getSessionFactoryOptions().isSecondLevelCacheEnabled()) {
+            return;
+        }
+
+        CacheImplementor cache = session.getFactory().getCache();
+        deviceIds.forEach(deviceId -> cache.evictEntityData(Device.class, deviceId));
+        cache.getTimestampsCache().preInvalidate(DeviceStatusUpdate.DEVICE_TABLE, session);
+        session.getActionQueue().registerProcess((success, completed) -> {
+            deviceIds.forEach(deviceId -> cache.evictEntityData(Device.class, deviceId));
+            cache.getTimestampsCache().invalidate(DeviceStatusUpdate.DEVICE_TABLE, completed);
+        });
+    }
 
-        int updatedEntry = query.executeUpdate();
-        // assert the sql statement is executed, and the entry is updated
-        assert(updatedEntry == 1);
+    /**
+     * Cache the results of a listing in the query cache, which holds the ids of the
+     * entities, the entities themselves are then read from the second level cache.
+     * A cached listing is invalidated by any write to the tables it reads.
+     */
+    private <T> TypedQuery<T> cacheable(TypedQuery<T> query, String region) {
+        if (queryCache) {
+            query.setHint(QueryHints.HINT_CACHEABLE, true).setHint(QueryHints.HINT_CACHE_REGION, region);
+        }
+        return query;
     }
 
 }
@@ -1,8 +1,14 @@
 package jpa.models;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 
+// customers are only ever added, a cached customer never goes stale
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY, region = "customer")
 public class Customer {
 
     @Id
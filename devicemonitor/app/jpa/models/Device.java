@@ -1,10 +1,20 @@
 package jpa.models;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 
+// the status of a device changes now and then, a cached device is locked while it is
+// written so that no stale copy is cached meanwhile, and only the changed columns are written
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "device")
+@DynamicUpdate
 public class Device {
 
     @Id
@@ -0,0 +1,114 @@
+package jpa.models;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Hourly rollup of the logs a device reported with one status.
+ */
+@Entity
+@Table(name = "device_log_hourly")
+@IdClass(DeviceLogHourly.Key.class)
+public class DeviceLogHourly {
+
+    @Id
+    @Column(name = "device_id")
+    public Long deviceId;
+
+    @Id
+    @Column(name = "hour_start")
+    public Long hourStart;
+
+    @Id
+    public String status;
+
+    @Column(name = "report_count")
+    public long reportCount;
+
+    @Column(name = "max_execution_hours")
+    public Integer maxExecutionHours;
+
+    @Column(name = "error_count")
+    public long errorCount;
+
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(Long deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public Long getHourStart() {
+        return hourStart;
+    }
+
+    public void setHourStart(Long hourStart) {
+        this.hourStart = hourStart;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public long getReportCount() {
+        return reportCount;
+    }
+
+    public void setReportCount(long reportCount) {
+        this.reportCount = reportCount;
+    }
+
+    public Integer getMaxExecutionHours() {
+        return maxExecutionHours;
+    }
+
+    public void setMaxExecutionHours(Integer maxExecutionHours) {
+        this.maxExecutionHours = maxExecutionHours;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public void setErrorCount(long errorCount) {
+        this.errorCount = errorCount;
+    }
+
+    public static class Key implements Serializable {
+
+        public Long deviceId;
+
+        public Long hourStart;
+
+        public String status;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(deviceId, key.deviceId)
+                    && Objects.equals(hourStart, key.hourStart)
+                    && Objects.equals(status, key.status);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, hourStart, status);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package metrics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.db.DBApi;
+import play.db.Database;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the HikariCP pool of every configured database, the default one, the read
+ * replica and the shards: time waiting for a connection, time a connection is in use,
+ * timeouts and the pool usage, labelled with the name of the database.
+ */
+@Singleton
+public class HikariMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HikariMetrics.class);
+
+    private static final String LABEL = "pool";
+
+    @Inject
+    public HikariMetrics(DBApi dbApi, MetricsRegistry metrics) {
+        for (Database database : dbApi.getDatabases()) {
+            try {
+                database.getDataSource().unwrap(HikariDataSource.class).setMetricsTrackerFactory(new PoolMetrics(database.getName(), metrics));
+            } catch (SQLException | IllegalStateException e) {
+                logger.warn("connection pool of database {} is not tracked", database.getName(), e);
+            }
+        }
+    }
+
+    // metrics of the pool of one database
+    private static class PoolMetrics implements MetricsTrackerFactory {
+
+        private final String pool;
+        private final MetricsRegistry metrics;
+        private final LatencyHistogram acquireTime;
+        private final LatencyHistogram usageTime;
+        private final LongAdder timeouts = new LongAdder();
+
+        PoolMetrics(String pool, MetricsRegistry metrics) {
+            this.pool = pool;
+            this.metrics = metrics;
+            this.acquireTime = metrics.histogram("pool_acquire_seconds", "Time waiting for a connection from the pool", LABEL, pool);
+            this.usageTime = metrics.histogram("pool_usage_seconds", "Time a connection is borrowed from the pool", LABEL, pool);
+            metrics.counter("pool_timeouts_total", "Connection requests that timed out", LABEL, pool, timeouts::sum);
+        }
+
+        @Override
+        public IMetricsTracker create(String poolName, PoolStats poolStats) {
+            metrics.gauge("pool_active_connections", "Connections in use", LABEL, pool, poolStats::getActiveConnections);
+            metrics.gauge("pool_idle_connections", "Idle connections", LABEL, pool, poolStats::getIdleConnections);
+            metrics.gauge("pool_max_connections", "Max connections of the pool", LABEL, pool, poolStats::getMaxConnections);
+            metrics.gauge("pool_pending_threads", "Threads waiting for a connection", LABEL, pool, poolStats::getPendingThreads);
+
+            return new IMetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    acquireTime.record(elapsedAcquiredNanos);
+                }
+
+                @Override
+                public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                    usageTime.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    timeouts.increment();
+                }
+            };
+        }
+    }
+}
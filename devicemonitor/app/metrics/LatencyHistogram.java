@@ -0,0 +1,61 @@
+package metrics;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram backed by HdrHistogram, recorded in microseconds
+ * and rendered as a Prometheus histogram with fixed buckets in seconds.
+ */
+public class LatencyHistogram {
+
+    // upper bounds of the buckets in seconds
+    static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final Histogram histogram = new ConcurrentHistogram(3);
+    private final LongAdder sumMicros = new LongAdder();
+
+    /**
+     * Record one measured duration
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        histogram.recordValue(micros);
+        sumMicros.add(micros);
+    }
+
+    /**
+     * Record the duration since the given start
+     *
+     * @param startNanos start as returned by System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        return histogram.getTotalCount();
+    }
+
+    void write(StringBuilder out, String name, String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double bucket : BUCKETS) {
+            long count = histogram.getCountBetweenValues(0, (long) (bucket * 1_000_000));
+            out.append(name).append("_bucket{").append(labels).append(separator)
+                    .append("le=\"").append(BigDecimal.valueOf(bucket).stripTrailingZeros().toPlainString()).append("\"} ").append(count).append('\n');
+        }
+        out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"+Inf\"} ").append(histogram.getTotalCount()).append('\n');
+        out.append(name).append("_sum").append(braces(labels)).append(' ').append(sumMicros.sum() / 1_000_000.0).append('\n');
+        out.append(name).append("_count").append(braces(labels)).append(' ').append(histogram.getTotalCount()).append('\n');
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+}
@@ -0,0 +1,43 @@
+package metrics;
+
+import akka.stream.Materializer;
+import play.api.routing.HandlerDef;
+import play.mvc.Filter;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.routing.Router;
+
+import javax.inject.Inject;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Filter that records the latency of every routed action, labelled by controller and method.
+ * The latency is taken until the result is ready, streamed bodies are not included.
+ */
+public class MetricsFilter extends Filter {
+
+    private final MetricsRegistry metrics;
+
+    @Inject
+    public MetricsFilter(Materializer materializer, MetricsRegistry metrics) {
+        super(materializer);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletionStage<Result> apply(Function<Http.RequestHeader, CompletionStage<Result>> next, Http.RequestHeader request) {
+        Optional<HandlerDef> handler = request.attrs().getOptional(Router.Attrs.HANDLER_DEF);
+        if (!handler.isPresent()) {
+            return next.apply(request);
+        }
+
+        String controller = handler.get().controller();
+        String action = controller.substring(controller.lastIndexOf('.') + 1) + "." + handler.get().method();
+        LatencyHistogram histogram = metrics.histogram("action_duration_seconds", "Latency of the actions until the result is ready",
+                "action", action);
+        long start = System.nanoTime();
+        return next.apply(request).whenComplete((result, error) -> histogram.recordSince(start));
+    }
+}
@@ -0,0 +1,123 @@
+package metrics;
+
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the application metrics, rendered in the Prometheus text format on /metrics.
+ * Histograms and gauges are labelled by at most one label, gauges and counters are read when rendered.
+ */
+@Singleton
+public class MetricsRegistry {
+
+    private static final String PREFIX = "devicemonitor_";
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Get the histogram of a metric for the given label value, created at first use
+     *
+     * @param name name of the metric, without prefix
+     * @param help description of the metric
+     * @param label name of the label
+     * @param value value of the label
+     * @return histogram to record into
+     */
+    public LatencyHistogram histogram(String name, String help, String label, String value) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, "histogram", label));
+        return family.histograms.computeIfAbsent(value, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Register a gauge, which is read every time the metrics are rendered
+     *
+     * @param name name of the metric, without prefix
+     * @param help description of the metric
+     * @param value supplier of the current value
+     */
+    public void gauge(String name, String help, Supplier<Number> value) {
+        families.computeIfAbsent(name, key -> new Family(help, "gauge", null)).values.put("", value);
+    }
+
+    /**
+     * Register a gauge for the given label value, which is read every time the metrics are rendered
+     *
+     * @param name name of the metric, without prefix
+     * @param help description of the metric
+     * @param label name of the label
+     * @param labelValue value of the label
+     * @param value supplier of the current value
+     */
+    public void gauge(String name, String help, String label, String labelValue, Supplier<Number> value) {
+        families.computeIfAbsent(name, key -> new Family(help, "gauge", label)).values.put(labelValue, value);
+    }
+
+    /**
+     * Register a counter, which is read every time the metrics are rendered
+     *
+     * @param name name of the metric, without prefix
+     * @param help description of the metric
+     * @param value supplier of the current total
+     */
+    public void counter(String name, String help, Supplier<Number> value) {
+        families.computeIfAbsent(name, key -> new Family(help, "counter", null)).values.put("", value);
+    }
+
+    /**
+     * Register a counter for the given label value, which is read every time the metrics are rendered
+     *
+     * @param name name of the metric, without prefix
+     * @param help description of the metric
+     * @param label name of the label
+     * @param labelValue value of the label
+     * @param value supplier of the current total
+     */
+    public void counter(String name, String help, String label, String labelValue, Supplier<Number> value) {
+        families.computeIfAbsent(name, key -> new Family(help, "counter", label)).values.put(labelValue, value);
+    }
+
+    /**
+     * Render all metrics in the Prometheus text format
+     *
+     * @return metrics in text
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        families.forEach((name, family) -> {
+            String fullName = PREFIX + name;
+            out.append("# HELP ").append(fullName).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(fullName).append(' ').append(family.type).append('\n');
+            new ConcurrentSkipListMap<>(family.values).forEach((value, supplier) -> {
+                out.append(fullName);
+                if (family.label != null) {
+                    out.append('{').append(family.label).append("=\"").append(escape(value)).append("\"}");
+                }
+                out.append(' ').append(supplier.get()).append('\n');
+            });
+            new ConcurrentSkipListMap<>(family.histograms).forEach((value, histogram) ->
+                    histogram.write(out, fullName, family.label + "=\"" + escape(value) + "\""));
+        });
+        return out.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class Family {
+        final String help;
+        final String type;
+        final String label;
+        final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+        final Map<String, Supplier<Number>> values = new ConcurrentHashMap<>();
+
+        Family(String help, String type, String label) {
+            this.help = help;
+            this.type = type;
+            this.label = label;
+        }
+    }
+}
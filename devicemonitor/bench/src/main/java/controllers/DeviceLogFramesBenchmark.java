@@ -0,0 +1,68 @@
+package controllers;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonFactory;
+import jpa.models.DeviceLog;
+import org.openjdk.jmh.annotations.*;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of decoding a batch of device logs posted to /update/batch,
+ * from json and from binary frames.
+ *
+ * Run with: sbt bench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DeviceLogFramesBenchmark {
+
+    // number of device logs in the batch
+    @Param({"1", "500"})
+    public int size;
+
+    private ByteString json;
+    private ByteString frames;
+    private JsonFactory jsonFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<DeviceLog> logs = new ArrayList<>();
+        for (long id = 1; id <= size; id++) {
+            DeviceLog log = new DeviceLog();
+            log.deviceId = id;
+            log.status = id % 10 == 0 ? "ERROR" : "ACTIVE";
+            log.executionHours = (int) id;
+            log.error = "";
+            log.updateAt = System.currentTimeMillis();
+            logs.add(log);
+        }
+        jsonFactory = Json.mapper().getFactory();
+        json = JsonWriters.write(new JsonWriters(Json.mapper()).deviceLogs, logs);
+        frames = DeviceLogFrames.encode(logs);
+    }
+
+    /**
+     * Decode the batch from a json array, as done by DeviceLogsBodyParser for application/json.
+     */
+    @Benchmark
+    public List<DeviceLog> json() throws IOException {
+        return DeviceLogsBodyParser.readJson(jsonFactory, json);
+    }
+
+    /**
+     * Decode the batch from frames, as done for application/vnd.devicemonitor.log.
+     */
+    @Benchmark
+    public List<DeviceLog> frames() {
+        return DeviceLogFrames.decode(frames);
+    }
+}
@@ -0,0 +1,92 @@
+package controllers;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import jpa.models.Device;
+import org.openjdk.jmh.annotations.*;
+import play.http.HttpEntity;
+import play.libs.Json;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the json serialization in DeviceController,
+ * for a page of devices and for a streamed list of devices.
+ *
+ * Run with: sbt bench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JsonBenchmark {
+
+    // number of devices to be serialized
+    @Param({"1", "1000"})
+    public int size;
+
+    private List<Device> devices;
+    private JsonWriters jsonWriters;
+    private ActorSystem actorSystem;
+    private Materializer materializer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        devices = new ArrayList<>();
+        for (long id = 1; id <= size; id++) {
+            Device device = new Device();
+            device.id = id;
+            device.customerId = 1L;
+            device.description = "device " + id;
+            device.updateAt = System.currentTimeMillis();
+            device.status = "ACTIVE";
+            devices.add(device);
+        }
+        jsonWriters = new JsonWriters(Json.mapper());
+        actorSystem = ActorSystem.create("bench");
+        materializer = Materializer.matFromSystem(actorSystem);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        actorSystem.terminate();
+    }
+
+    /**
+     * Render the devices as one page, as done for /devices with a limit.
+     */
+    @Benchmark
+    public ByteString page() {
+        Result result = DeviceController.page(devices, DeviceController.MAX_PAGE_SIZE, device -> device.id, jsonWriters.devices);
+        return ((HttpEntity.Strict) result.body()).data();
+    }
+
+    /**
+     * Render the devices as one page through a json tree, as done before the json writers,
+     * kept as the baseline of page().
+     */
+    @Benchmark
+    public ByteString pageTree() {
+        Result result = Results.ok(Json.toJson(devices));
+        return ((HttpEntity.Strict) result.body()).data();
+    }
+
+    /**
+     * Render the devices as a streamed json array, as done for /devices without a limit.
+     */
+    @Benchmark
+    public ByteString jsonArray() {
+        return DeviceController.jsonArray(Source.from(devices), jsonWriters.device)
+                .runWith(Sink.fold(ByteString.emptyByteString(), ByteString::concat), materializer)
+                .toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,98 @@
+package jpa;
+
+import play.Application;
+import play.db.Database;
+import play.inject.guice.GuiceApplicationBuilder;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Application running on an embedded H2 database for the benchmarks,
+ * seeded with a given number of devices, each device with one log.
+ */
+public class BenchApplication {
+
+    // number of devices per customer in the seeded data
+    static final int DEVICES_PER_CUSTOMER = 100;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final Application application;
+
+    public BenchApplication(String name, int devices) throws Exception {
+        this(name, devices, new HashMap<>());
+    }
+
+    public BenchApplication(String name, int devices, Map<String, Object> overrides) throws Exception {
+        Map<String, Object> config = new HashMap<>(overrides);
+        config.put("db.default.driver", "org.h2.Driver");
+        config.put("db.default.url", "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        config.put("db.default.username", "sa");
+        config.put("db.default.password", "");
+        // keep the background jobs away from the measurements
+        config.put("deviceLog.rollup.enabled", false);
+        config.put("deviceLog.partitioning.enabled", false);
+
+        this.application = new GuiceApplicationBuilder().configure(config).build();
+        seed(devices);
+    }
+
+    public <T> T instanceOf(Class<T> clazz) {
+        return application.injector().instanceOf(clazz);
+    }
+
+    public void stop() throws Exception {
+        Await.result(application.asScala().stop(), Duration.Inf());
+    }
+
+    /**
+     * Insert the customers, devices and logs with plain jdbc batches,
+     * ids of the devices and logs run from 1 to the number of devices.
+     *
+     * @param devices number of devices to be inserted
+     */
+    private void seed(int devices) {
+        long now = System.currentTimeMillis();
+        instanceOf(Database.class).withTransaction(connection -> {
+            try (PreparedStatement customer = connection.prepareStatement("insert into customer (id, name) values (?, ?)");
+                 PreparedStatement device = connection.prepareStatement(
+                         "insert into device (id, description, customer_id, update_at, status) values (?, ?, ?, ?, ?)");
+                 PreparedStatement log = connection.prepareStatement(
+                         "insert into device_log (id, device_id, status, execution_hours, error, update_at) values (?, ?, ?, ?, ?, ?)")) {
+                for (long id = 1; id <= devices; id++) {
+                    long customerId = (id - 1) / DEVICES_PER_CUSTOMER + 1;
+                    if ((id - 1) % DEVICES_PER_CUSTOMER == 0) {
+                        customer.setLong(1, customerId);
+                        customer.setString(2, "customer " + customerId);
+                        customer.addBatch();
+                    }
+
+                    device.setLong(1, id);
+                    device.setString(2, "device " + id);
+                    device.setLong(3, customerId);
+                    device.setLong(4, now);
+                    device.setString(5, "ACTIVE");
+                    device.addBatch();
+
+                    log.setLong(1, id);
+                    log.setLong(2, id);
+                    log.setString(3, "ACTIVE");
+                    log.setInt(4, 1);
+                    log.setString(5, "");
+                    log.setLong(6, now);
+                    log.addBatch();
+
+                    if (id % BATCH_SIZE == 0 || id == devices) {
+                        customer.executeBatch();
+                        device.executeBatch();
+                        log.executeBatch();
+                    }
+                }
+            }
+        });
+    }
+}
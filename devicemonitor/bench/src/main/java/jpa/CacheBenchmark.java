@@ -0,0 +1,68 @@
+package jpa;
+
+import jpa.models.Customer;
+import jpa.models.Device;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the dashboard reads with and without the query cache of the
+ * hibernate second level cache, i.e. the two values of database.queryCache.
+ *
+ * Run with: sbt "bench/jmh:run -rf json -rff target/jmh-result.json CacheBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final int DEVICES = 100000;
+
+    private static final int CUSTOMERS = DEVICES / BenchApplication.DEVICES_PER_CUSTOMER;
+
+    // value of database.queryCache
+    @Param({"true", "false"})
+    public boolean queryCache;
+
+    private BenchApplication application;
+    private JPADeviceRepository deviceRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        application = new BenchApplication("bench_cache_" + queryCache, DEVICES, Collections.singletonMap("database.queryCache", queryCache));
+        deviceRepository = application.instanceOf(JPADeviceRepository.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        application.stop();
+    }
+
+    /**
+     * List the devices of a random customer, as the dashboard filtered by customer does
+     */
+    @Benchmark
+    public List<Device> listCustomerDevices() {
+        DeviceFilter filter = new DeviceFilter(null, randomCustomerId());
+        return deviceRepository.listDevices(filter, null, BenchApplication.DEVICES_PER_CUSTOMER).toCompletableFuture().join();
+    }
+
+    /**
+     * List one page of customers, starting after a random customer
+     */
+    @Benchmark
+    public List<Customer> listCustomersPage() {
+        return deviceRepository.listCustomers(randomCustomerId(), 100).toCompletableFuture().join();
+    }
+
+    private long randomCustomerId() {
+        return ThreadLocalRandom.current().nextLong(1, CUSTOMERS + 1);
+    }
+}
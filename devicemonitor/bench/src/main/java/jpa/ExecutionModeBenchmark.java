@@ -0,0 +1,68 @@
+package jpa;
+
+import jpa.models.DeviceLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the repository execution modes under an ingest burst, comparing the
+ * fixed database.dispatcher with virtual threads limited by the connection pool size.
+ * The virtual mode needs a JDK with virtual threads (21 or later).
+ *
+ * Run with: sbt "bench/jmh:run -rf json -rff target/jmh-result.json ExecutionModeBenchmark"
+ * and add e.g. -prof perfnorm on Linux to compare context switches per burst.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+    private static final int DEVICES = 10000;
+
+    // value of database.executor
+    @Param({"dispatcher", "virtual"})
+    public String executor;
+
+    // device logs posted at once
+    @Param({"100", "1000"})
+    public int burst;
+
+    private BenchApplication application;
+    private JPADeviceRepository deviceRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        application = new BenchApplication("bench_" + executor, DEVICES, Collections.singletonMap("database.executor", executor));
+        deviceRepository = application.instanceOf(JPADeviceRepository.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        application.stop();
+    }
+
+    /**
+     * Post a burst of device logs at once and wait until all of them are stored
+     */
+    @Benchmark
+    public Object ingestBurst() {
+        CompletableFuture<?>[] updates = new CompletableFuture<?>[burst];
+        for (int i = 0; i < burst; i++) {
+            DeviceLog log = new DeviceLog();
+            log.deviceId = ThreadLocalRandom.current().nextLong(1, DEVICES + 1);
+            log.status = ThreadLocalRandom.current().nextBoolean() ? "ACTIVE" : "ERROR";
+            log.executionHours = 1;
+            log.error = "";
+            log.updateAt = System.currentTimeMillis();
+            updates[i] = deviceRepository.updateDeviceLog(log).toCompletableFuture();
+        }
+        return CompletableFuture.allOf(updates).join();
+    }
+}
@@ -0,0 +1,80 @@
+package jpa;
+
+import jpa.models.DeviceLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the ingest path through the entity manager and with plain jdbc,
+ * i.e. the two values of ingest.executor, for a single device log and a batch.
+ *
+ * Run with: sbt "bench/jmh:run -rf json -rff target/jmh-result.json IngestExecutorBenchmark"
+ * and add e.g. -prof gc to compare the allocation per log, or -prof perfnorm on Linux
+ * to compare the cpu cycles per log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IngestExecutorBenchmark {
+
+    private static final int DEVICES = 10000;
+
+    private static final int BATCH_SIZE = 500;
+
+    // value of ingest.executor
+    @Param({"jpa", "jdbc"})
+    public String executor;
+
+    private BenchApplication application;
+    private JPADeviceRepository deviceRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        application = new BenchApplication("bench_ingest_" + executor, DEVICES, Collections.singletonMap("ingest.executor", executor));
+        deviceRepository = application.instanceOf(JPADeviceRepository.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        application.stop();
+    }
+
+    /**
+     * Persist a device log of a random device, in its own transaction
+     */
+    @Benchmark
+    public DeviceLog updateDeviceLog() {
+        return deviceRepository.updateDeviceLog(randomLog()).toCompletableFuture().join();
+    }
+
+    /**
+     * Persist a batch of device logs of random devices, in one transaction
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<DeviceLog> updateDeviceLogs() {
+        List<DeviceLog> logs = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            logs.add(randomLog());
+        }
+        return deviceRepository.updateDeviceLogs(logs).toCompletableFuture().join();
+    }
+
+    private DeviceLog randomLog() {
+        DeviceLog log = new DeviceLog();
+        log.deviceId = ThreadLocalRandom.current().nextLong(1, DEVICES + 1);
+        log.status = ThreadLocalRandom.current().nextBoolean() ? "ACTIVE" : "ERROR";
+        log.executionHours = 1;
+        log.error = "";
+        log.updateAt = System.currentTimeMillis();
+        return log;
+    }
+}
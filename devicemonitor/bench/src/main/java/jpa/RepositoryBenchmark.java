@@ -0,0 +1,106 @@
+package jpa;
+
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import jpa.models.Device;
+import jpa.models.DeviceLog;
+import org.openjdk.jmh.annotations.*;
+import play.db.jpa.JPAApi;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the repository and the sql executor against an embedded H2 database,
+ * for the number of devices given by the rows parameter.
+ *
+ * Run with: sbt bench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RepositoryBenchmark {
+
+    // number of devices in the database, each device has one log
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private BenchApplication application;
+    private JPADeviceRepository deviceRepository;
+    private SqlExecutor sqlExecutor;
+    private JPAApi jpaApi;
+    private Materializer materializer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        application = new BenchApplication("bench" + rows, rows);
+        deviceRepository = application.instanceOf(JPADeviceRepository.class);
+        sqlExecutor = new SqlExecutor(application.instanceOf(IdGenerator.class), application.instanceOf(DeviceStatusWrites.class), true);
+        jpaApi = application.instanceOf(JPAApi.class);
+        materializer = application.instanceOf(Materializer.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        application.stop();
+    }
+
+    /**
+     * Insert a new log of a random device through the repository,
+     * including the update of the device status.
+     */
+    @Benchmark
+    public DeviceLog insertLog() {
+        DeviceLog log = new DeviceLog();
+        log.deviceId = randomDeviceId();
+        log.status = ThreadLocalRandom.current().nextBoolean() ? "ACTIVE" : "ERROR";
+        log.executionHours = 1;
+        log.error = "";
+        log.updateAt = System.currentTimeMillis();
+        return deviceRepository.updateDeviceLog(log).toCompletableFuture().join();
+    }
+
+    /**
+     * Check the latest log of a random device through the repository,
+     * which is served by the cache once the device has been checked.
+     */
+    @Benchmark
+    public DeviceLog checkLatest() {
+        return deviceRepository.checkDeviceLog(randomDeviceId()).toCompletableFuture().join();
+    }
+
+    /**
+     * Check the latest log of a random device from the database, bypassing the cache.
+     */
+    @Benchmark
+    public DeviceLog checkLatestFromDatabase() {
+        long id = randomDeviceId();
+        return jpaApi.withTransaction(em -> {
+            return sqlExecutor.checkDeviceLog(em, id);
+        });
+    }
+
+    /**
+     * List one page of devices, starting after a random device.
+     */
+    @Benchmark
+    public List<Device> listDevicesPage() {
+        return deviceRepository.listDevices(DeviceFilter.ALL, randomDeviceId(), 1000).toCompletableFuture().join();
+    }
+
+    /**
+     * Stream all devices, one page at a time.
+     */
+    @Benchmark
+    public Object listAllDevices() {
+        return deviceRepository.listDevices(DeviceFilter.ALL, null).runWith(Sink.ignore(), materializer).toCompletableFuture().join();
+    }
+
+    private long randomDeviceId() {
+        return ThreadLocalRandom.current().nextLong(1, rows + 1);
+    }
+}
@@ -0,0 +1,30 @@
+-- baseline schema, created only if it has not been deployed yet, and never rolled back
+
+# --- !Ups
+
+create table if not exists customer (
+    id bigint not null,
+    name varchar(100) not null,
+    primary key (id)
+    );
+
+create table if not exists device (
+    id bigint not null,
+    description varchar(200) not null,
+    customer_id bigint not null,
+    update_at bigint not null,
+    status varchar(10),
+    primary key (id)
+    );
+
+create table if not exists device_log (
+    id bigint not null,
+    device_id bigint not null,
+    status varchar(10) not null,
+    execution_hours int,
+    error varchar(1000),
+    update_at bigint not null,
+    primary key (id)
+    );
+
+# --- !Downs
@@ -0,0 +1,9 @@
+-- latest log of a device is looked up by device id, newest id first
+
+# --- !Ups
+
+create index idx_device_log_device_id on device_log (device_id, id);
+
+# --- !Downs
+
+drop index idx_device_log_device_id on device_log;
@@ -0,0 +1,11 @@
+-- devices are paged by id, optionally filtered by customer or status
+
+# --- !Ups
+
+create index idx_device_customer_id on device (customer_id, id);
+create index idx_device_status on device (status, id);
+
+# --- !Downs
+
+drop index idx_device_status on device;
+drop index idx_device_customer_id on device;
@@ -0,0 +1,21 @@
+-- device logs are scanned by update time for the hourly rollups,
+-- which the dashboards read instead of the logs
+
+# --- !Ups
+
+create index idx_device_log_update_at on device_log (update_at);
+
+create table device_log_hourly (
+    device_id bigint not null,
+    hour_start bigint not null,
+    status varchar(10) not null,
+    report_count bigint not null,
+    max_execution_hours int,
+    error_count bigint not null,
+    primary key (device_id, hour_start, status)
+    );
+
+# --- !Downs
+
+drop table device_log_hourly;
+drop index idx_device_log_update_at on device_log;
@@ -0,0 +1,9 @@
+-- devices are synced by update time, the dashboards fetch the devices changed since their last sync
+
+# --- !Ups
+
+create index idx_device_update_at on device (update_at);
+
+# --- !Downs
+
+drop index idx_device_update_at on device;
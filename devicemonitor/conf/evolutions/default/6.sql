@@ -0,0 +1,10 @@
+-- device logs are exported by device and update time, the export of a device
+-- seeks its logs in the range instead of scanning the logs of all devices
+
+# --- !Ups
+
+create index idx_device_log_device_update_at on device_log (device_id, update_at);
+
+# --- !Downs
+
+drop index idx_device_log_device_update_at on device_log;
@@ -0,0 +1,17 @@
+-- the periodic maintenance of the device logs is claimed per database and task, so that
+-- one app node runs it at every interval, and the next run knows when the previous one ran
+
+# --- !Ups
+
+create table maintenance_run (
+    name varchar(50) not null,
+    run_at bigint not null,
+    primary key (name)
+    );
+
+insert into maintenance_run (name, run_at) values ('rollup', 0);
+insert into maintenance_run (name, run_at) values ('partitioning', 0);
+
+# --- !Downs
+
+drop table maintenance_run;
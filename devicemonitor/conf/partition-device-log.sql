@@ -0,0 +1,22 @@
+-- Partition device_log by day of update_at (MySQL only).
+--
+-- Run this once against a stopped application, then set
+-- deviceLog.partitioning.enabled = true. The application then keeps creating
+-- the partitions of the coming days, and drops the partitions that are older
+-- than deviceLog.partitioning.retention. Every existing log ends up in
+-- p_history, which is dropped as a whole once it falls out of the retention.
+-- If the devices are sharded, run it against every shard instead, with the
+-- database of the shard in place of devicemonitor below.
+
+use devicemonitor;
+
+-- every unique key of a partitioned table has to include the partitioning column
+alter table device_log drop primary key, add primary key (id, update_at);
+
+set @today = unix_timestamp(utc_date()) * 1000;
+set @ddl = concat('alter table device_log partition by range (update_at) (',
+                  'partition p_history values less than (', @today, '), ',
+                  'partition pmax values less than maxvalue)');
+prepare partition_device_log from @ddl;
+execute partition_device_log;
+deallocate prepare partition_device_log;
@@ -38,6 +38,8 @@ public class DeviceControllerIT extends WithServer {
     private static final Long customerId = System.currentTimeMillis();
     private static final Long deviceId = System.currentTimeMillis();
     private static final Long deviceLogId = System.currentTimeMillis();
+    // id the server assigned to the device log added by TC5
+    private static Long addedDeviceLogId;
     private static final String description = "test device for quality inspection";
     private static final String status = "ACTIVE";
     private static final int executionHours = 12;
@@ -206,7 +208,8 @@ public class DeviceControllerIT extends WithServer {
             String body = response.getBody();
             DeviceLog addedLog = Json.mapper().readValue(body, DeviceLog.class);
             assert(addedLog != null);
-            assertEquals(deviceLog.id, addedLog.id);
+            assertTrue("the server should assign the id", addedLog.id != null && !deviceLog.id.equals(addedLog.id));
+            addedDeviceLogId = addedLog.id;
             assertEquals(deviceLog.deviceId, addedLog.deviceId);
             assertEquals(deviceLog.status, addedLog.status);
             assertEquals(deviceLog.executionHours, addedLog.executionHours);
@@ -233,7 +236,7 @@ public class DeviceControllerIT extends WithServer {
             String body = response.getBody();
             DeviceLog deviceLog = Json.mapper().readValue(body, DeviceLog.class);
             assert(deviceLog != null);
-            assertEquals(deviceLogId, deviceLog.id);
+            assertEquals(addedDeviceLogId, deviceLog.id);
             assertEquals(deviceId, deviceLog.deviceId);
             assertEquals(status, deviceLog.status);
             assertEquals(executionHours, deviceLog.executionHours);
@@ -0,0 +1,270 @@
+package controllers;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import jpa.DeviceRepository;
+import jpa.models.Customer;
+import jpa.models.Device;
+import jpa.models.DeviceLog;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.libs.Json;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSResponse;
+import play.test.WSTestClient;
+import play.test.WithServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertTrue;
+import static play.test.Helpers.inMemoryDatabase;
+
+/**
+ * Load test class for DeviceController, driving the routes with concurrent
+ * simulated devices and dashboard readers against an embedded H2 database.
+ * Settings and thresholds are in conf/loadtest.conf.
+ */
+public class DeviceControllerLT extends WithServer {
+
+    private static final String UPDATE = "update";
+    private static final String CHECK = "check";
+    private static final String DEVICES = "devices";
+    private static final String ADD_DEVICE = "addDevice";
+
+    // result of the run, kept to compare across releases
+    private static final Path RESULT_FILE = Paths.get("target", "loadtest-result.json");
+
+    private final Config config = ConfigFactory.systemProperties()
+            .withFallback(ConfigFactory.parseResources("loadtest.conf"))
+            .resolve()
+            .getConfig("loadTest");
+
+    // latency in microseconds and number of failed requests of each route
+    private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> errors = new HashMap<>();
+
+    private final List<Long> deviceIds = new ArrayList<>();
+    private Long customerId;
+
+    @Override
+    protected Application provideApplication() {
+        Map<String, String> options = new HashMap<>();
+        options.put("MODE", "MySQL");
+        return new GuiceApplicationBuilder()
+                .configure(new HashMap<String, Object>(inMemoryDatabase("loadtest", options)))
+                // keep the background jobs away from the measurements
+                .configure("deviceLog.rollup.enabled", false)
+                .configure("deviceLog.partitioning.enabled", false)
+                .build();
+    }
+
+    /**
+     * TC1: drive /update, /check/:id, /devices and /add/device with the configured load
+     *
+     * input: concurrent simulated devices and dashboard readers, as configured in loadtest.conf
+     * output: throughput and p50/p99/p99.9 latency of each route
+     * oracle: assert no route exceeds its configured latency and error rate thresholds
+     *
+     * @throws Exception
+     */
+    @Test
+    public void tc1_LoadRoutes() throws Exception {
+        for (String route : new String[]{UPDATE, CHECK, DEVICES, ADD_DEVICE}) {
+            latencies.put(route, new ConcurrentHistogram(3));
+            errors.put(route, new AtomicLong());
+        }
+        seed();
+
+        int devices = config.getInt("devices");
+        int readers = config.getInt("readers");
+        long warmupEnd = System.nanoTime() + config.getDuration("warmup", TimeUnit.NANOSECONDS);
+        long end = warmupEnd + config.getDuration("duration", TimeUnit.NANOSECONDS);
+
+        ExecutorService clients = Executors.newFixedThreadPool(devices + readers);
+        try (WSClient ws = WSTestClient.newClient(this.testServer.getRunningHttpPort().getAsInt())) {
+            for (int i = 0; i < devices; i++) {
+                Long deviceId = deviceIds.get(i % deviceIds.size());
+                clients.execute(() -> run(warmupEnd, end, () -> UPDATE, route -> updateDevice(ws, deviceId)));
+            }
+            for (int i = 0; i < readers; i++) {
+                clients.execute(() -> run(warmupEnd, end, this::nextReaderRoute, route -> read(ws, route)));
+            }
+            clients.shutdown();
+            assertTrue("load test should finish", clients.awaitTermination(
+                    config.getDuration("warmup", TimeUnit.SECONDS) + config.getDuration("duration", TimeUnit.SECONDS) + 60, TimeUnit.SECONDS));
+        }
+
+        double seconds = config.getDuration("duration", TimeUnit.MILLISECONDS) / 1000.0;
+        report(seconds);
+        List<String> violations = checkThresholds();
+        assertTrue("thresholds exceeded:\n" + String.join("\n", violations), violations.isEmpty());
+    }
+
+    /**
+     * Add the customer and the devices the load works on, through the repository
+     */
+    private void seed() {
+        DeviceRepository deviceRepository = app.injector().instanceOf(DeviceRepository.class);
+
+        Customer customer = new Customer();
+        customer.name = "load test";
+        customerId = deviceRepository.addCustomer(customer).toCompletableFuture().join().id;
+
+        for (int i = 0; i < config.getInt("seedDevices"); i++) {
+            deviceIds.add(deviceRepository.addDevice(newDevice()).toCompletableFuture().join().id);
+        }
+    }
+
+    /**
+     * Send requests one after another until the end of the run,
+     * recording the latency of the requests sent after the warmup.
+     */
+    private void run(long warmupEnd, long end, Supplier<String> nextRoute,
+                     Function<String, CompletionStage<WSResponse>> send) {
+        long start;
+        while ((start = System.nanoTime()) < end) {
+            String route = nextRoute.get();
+            boolean failed;
+            try {
+                failed = send.apply(route).toCompletableFuture().get().getStatus() >= 400;
+            } catch (Exception e) {
+                failed = true;
+            }
+            if (start >= warmupEnd) {
+                latencies.get(route).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                if (failed) {
+                    errors.get(route).incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private String nextReaderRoute() {
+        Config mix = config.getConfig("readerMix");
+        int check = mix.getInt(CHECK);
+        int devices = mix.getInt(DEVICES);
+        int pick = ThreadLocalRandom.current().nextInt(check + devices + mix.getInt(ADD_DEVICE));
+        if (pick < check) {
+            return CHECK;
+        }
+        return pick < check + devices ? DEVICES : ADD_DEVICE;
+    }
+
+    private CompletionStage<WSResponse> updateDevice(WSClient ws, Long deviceId) {
+        DeviceLog log = new DeviceLog();
+        log.deviceId = deviceId;
+        log.status = ThreadLocalRandom.current().nextInt(100) == 0 ? "ERROR" : "ACTIVE";
+        log.executionHours = 1;
+        log.error = "";
+        log.updateAt = System.currentTimeMillis();
+        return ws.url("/update").post(Json.toJson(log));
+    }
+
+    private CompletionStage<WSResponse> read(WSClient ws, String route) {
+        Long deviceId = deviceIds.get(ThreadLocalRandom.current().nextInt(deviceIds.size()));
+        switch (route) {
+            case CHECK:
+                return ws.url("/check/" + deviceId).get();
+            case DEVICES:
+                return ws.url("/devices")
+                        .addQueryParameter("limit", config.getString("pageSize"))
+                        .addQueryParameter("after", String.valueOf(deviceId))
+                        .get();
+            default:
+                return ws.url("/add/device").post(Json.toJson(newDevice()));
+        }
+    }
+
+    private Device newDevice() {
+        Device device = new Device();
+        device.customerId = customerId;
+        device.description = "load test device";
+        device.status = "ACTIVE";
+        device.updateAt = System.currentTimeMillis();
+        return device;
+    }
+
+    /**
+     * Print the throughput and latency of each route, and write them as json into the result file
+     */
+    private void report(double seconds) throws IOException {
+        ObjectNode result = Json.newObject();
+        System.out.println(String.format("%-10s %10s %8s %12s %10s %10s %10s", "route", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms"));
+        for (Map.Entry<String, Histogram> entry : latencies.entrySet()) {
+            Histogram histogram = entry.getValue();
+            long count = histogram.getTotalCount();
+            ObjectNode route = result.putObject(entry.getKey());
+            route.put("requests", count);
+            route.put("errors", errors.get(entry.getKey()).get());
+            route.put("throughput", count / seconds);
+            route.put("p50", percentile(histogram, 50));
+            route.put("p99", percentile(histogram, 99));
+            route.put("p999", percentile(histogram, 99.9));
+            System.out.println(String.format("%-10s %10d %8d %12.1f %10.2f %10.2f %10.2f", entry.getKey(), count, errors.get(entry.getKey()).get(),
+                    count / seconds, percentile(histogram, 50), percentile(histogram, 99), percentile(histogram, 99.9)));
+        }
+
+        Files.createDirectories(RESULT_FILE.getParent());
+        Files.write(RESULT_FILE, Collections.singletonList(Json.prettyPrint(result)));
+    }
+
+    /**
+     * Compare the result of each route with its thresholds
+     *
+     * @return description of every exceeded threshold
+     */
+    private List<String> checkThresholds() {
+        List<String> violations = new ArrayList<>();
+        for (Map.Entry<String, Histogram> entry : latencies.entrySet()) {
+            String route = entry.getKey();
+            Histogram histogram = entry.getValue();
+            Config thresholds = config.getConfig("thresholds." + route);
+
+            if (histogram.getTotalCount() == 0) {
+                violations.add(route + ": no request recorded");
+                continue;
+            }
+            checkLatency(violations, route, "p50", percentile(histogram, 50), thresholds);
+            checkLatency(violations, route, "p99", percentile(histogram, 99), thresholds);
+            checkLatency(violations, route, "p999", percentile(histogram, 99.9), thresholds);
+
+            double errorRate = (double) errors.get(route).get() / histogram.getTotalCount();
+            if (errorRate > thresholds.getDouble("errorRate")) {
+                violations.add(String.format("%s: error rate %.4f exceeds %.4f", route, errorRate, thresholds.getDouble("errorRate")));
+            }
+        }
+        return violations;
+    }
+
+    private void checkLatency(List<String> violations, String route, String name, double millis, Config thresholds) {
+        long limit = thresholds.getDuration(name, TimeUnit.MILLISECONDS);
+        if (millis > limit) {
+            violations.add(String.format("%s: %s %.2f ms exceeds %d ms", route, name, millis, limit));
+        }
+    }
+
+    private static double percentile(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -1,33 +1,38 @@
 package controllers;
 
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
 import com.typesafe.config.Config;
-import com.typesafe.config.ConfigFactory;
 import jpa.models.Customer;
 import jpa.models.Device;
 import jpa.models.DeviceLog;
+import jpa.models.DeviceLogHourly;
 import jpa.DeviceRepository;
+import jpa.DeviceStatusChange;
+import jpa.FleetSummary;
+import jpa.IngestRejectedException;
 import org.apache.commons.lang3.StringUtils;
-import org.hibernate.validator.messageinterpolation.ParameterMessageInterpolator;
 import org.junit.Test;
-import play.data.FormFactory;
-import play.data.format.Formatters;
 import play.http.HttpEntity;
 import play.i18n.Lang;
 import play.i18n.Messages;
 import play.i18n.MessagesApi;
 import play.libs.Json;
-import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Http;
 import play.mvc.Result;
 import play.test.Helpers;
 
-import javax.validation.Validation;
-import javax.validation.ValidatorFactory;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.concurrent.CompletableFuture.supplyAsync;
@@ -36,7 +41,12 @@ import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -61,15 +71,7 @@ public class DeviceControllerUT {
         msg = mock(Messages.class);
         msgApi = mock(MessagesApi.class);
 
-        ValidatorFactory factory = Validation.byDefaultProvider().configure()
-                .messageInterpolator(new ParameterMessageInterpolator())
-                .buildValidatorFactory();
-
-        Config config = ConfigFactory.load();
-        FormFactory formFactory = new FormFactory(msgApi, new Formatters(msgApi), factory, config);
-
-        HttpExecutionContext execCxt = new HttpExecutionContext(ForkJoinPool.commonPool());
-        deviceController = new DeviceController(formFactory, deviceRepository, execCxt);
+        deviceController = new DeviceController(deviceRepository, new JsonWriters(Json.mapper()));
     }
 
     /**
@@ -90,7 +92,7 @@ public class DeviceControllerUT {
 
         // prepare the http request
         Http.Request req = Helpers.fakeRequest("POST", "/add/customer")
-                .bodyJson(Json.toJson(customer)).build().withTransientLang(Lang.forCode("en-US"));
+                .build().withBody(new Http.RequestBody(customer)).withTransientLang(Lang.forCode("en-US"));
 
         when(msgApi.preferred(req)).thenReturn(msg);
 
@@ -131,7 +133,7 @@ public class DeviceControllerUT {
         List<Customer> customers = new ArrayList<Customer>();
         customers.add(customer);
 
-        when(deviceRepository.listCustomers()).thenReturn(supplyAsync(() -> customers.stream()));
+        when(deviceRepository.listCustomers(any())).thenReturn(Source.from(customers));
 
         // prepare the http request
         Http.Request req = Helpers.fakeRequest("GET", "/customers")
@@ -140,7 +142,7 @@ public class DeviceControllerUT {
         when(msgApi.preferred(req)).thenReturn(msg);
 
         // call function getCustomer
-        CompletionStage<Result> completionStage = deviceController.getCustomers();
+        CompletionStage<Result> completionStage = deviceController.getCustomers(Optional.empty(), Optional.empty());
 
         // verify function call complete and success
         await().atMost(1, TimeUnit.SECONDS).untilAsserted(
@@ -150,7 +152,7 @@ public class DeviceControllerUT {
         );
 
         Result result = completionStage.toCompletableFuture().get();
-        String body = ((HttpEntity.Strict) result.body()).data().decodeString("utf-8");
+        String body = contentAsString(result);
         List<Customer> retrievedCustomers = Arrays.asList(Json.mapper().readValue(body, Customer[].class));
 
         // verify attributes in the response body
@@ -178,7 +180,7 @@ public class DeviceControllerUT {
 
         // prepare the http request
         Http.Request req = Helpers.fakeRequest("POST", "/add/device")
-                .bodyJson(Json.toJson(device)).build().withTransientLang(Lang.forCode("en-US"));
+                .build().withBody(new Http.RequestBody(device)).withTransientLang(Lang.forCode("en-US"));
 
         when(msgApi.preferred(req)).thenReturn(msg);
 
@@ -223,7 +225,7 @@ public class DeviceControllerUT {
         List<Device> devices = new ArrayList<Device>();
         devices.add(device);
 
-        when(deviceRepository.listDevices()).thenReturn(supplyAsync(() -> devices.stream()));
+        when(deviceRepository.listDevices(any(), any())).thenReturn(Source.from(devices));
 
         // prepare the http request
         Http.Request req = Helpers.fakeRequest("GET", "/devices")
@@ -232,7 +234,7 @@ public class DeviceControllerUT {
         when(msgApi.preferred(req)).thenReturn(msg);
 
         // call function getDevices
-        CompletionStage<Result> completionStage = deviceController.getDevices();
+        CompletionStage<Result> completionStage = deviceController.getDevices(req, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
 
         // verify function call complete and success
         await().atMost(1, TimeUnit.SECONDS).untilAsserted(
@@ -242,7 +244,7 @@ public class DeviceControllerUT {
         );
 
         Result result = completionStage.toCompletableFuture().get();
-        String body = ((HttpEntity.Strict) result.body()).data().decodeString("utf-8");
+        String body = contentAsString(result);
         List<Device> retrievedDevices = Arrays.asList(Json.mapper().readValue(body, Device[].class));
 
         // verify attributes in the response body
@@ -271,7 +273,7 @@ public class DeviceControllerUT {
         initDevice();
         mockup();
 
-        when(deviceRepository.removeDevice(device.id)).thenReturn(supplyAsync(() -> device.id));
+        when(deviceRepository.removeDevice(device.id)).thenReturn(supplyAsync(() -> Optional.of(device.id)));
 
         // prepare the http request
         Http.Request req = Helpers.fakeRequest("POST", "/remove/101175")
@@ -317,7 +319,7 @@ public class DeviceControllerUT {
 
         // prepare the http request
         Http.Request req = Helpers.fakeRequest("POST", "/update")
-                .bodyJson(Json.toJson(deviceLog)).build().withTransientLang(Lang.forCode("en-US"));
+                .build().withBody(new Http.RequestBody(deviceLog)).withTransientLang(Lang.forCode("en-US"));
 
         when(msgApi.preferred(req)).thenReturn(msg);
 
@@ -389,6 +391,479 @@ public class DeviceControllerUT {
         assertEquals("device updated time should be the same", deviceLog.updateAt, fetchedDeviceLog.updateAt);
     }
 
+    /**
+     * TC8: test updateDevices feature from DeviceController class using the prepared mocks
+     *
+     *  input: a batch of device logs
+     *  output: response with the added device log objects
+     *  oracle: response status is ok, response content is the device logs added
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUpdateDevices() throws Exception{
+        initCustomer();
+        initDevice();
+        initDeviceLog();
+        mockup();
+
+        // prepare the device log batch
+        List<DeviceLog> deviceLogs = new ArrayList<DeviceLog>();
+        deviceLogs.add(deviceLog);
+
+        when(deviceRepository.updateDeviceLogs(any())).thenReturn(supplyAsync(() -> deviceLogs));
+
+        // prepare the http request
+        Http.Request req = Helpers.fakeRequest("POST", "/update/batch").build()
+                .withBody(new Http.RequestBody(deviceLogs.toArray(new DeviceLog[0]))).withTransientLang(Lang.forCode("en-US"));
+
+        when(msgApi.preferred(req)).thenReturn(msg);
+
+        // call function updateDevices
+        CompletionStage<Result> completionStage = deviceController.updateDevices(req);
+
+        // verify function call complete and success
+        await().atMost(1, TimeUnit.SECONDS).untilAsserted(
+                () -> assertThat(completionStage.toCompletableFuture()).isCompletedWithValueMatching(
+                        result -> result.status() == Http.Status.OK, "should return the added device logs"
+                )
+        );
+
+        Result result = completionStage.toCompletableFuture().get();
+        String body = ((HttpEntity.Strict) result.body()).data().decodeString("utf-8");
+        List<DeviceLog> addedDeviceLogs = Arrays.asList(Json.mapper().readValue(body, DeviceLog[].class));
+
+        // verify attributes in the response body
+        assertTrue("added device log list contains one entry", addedDeviceLogs.size() == 1);
+        assertEquals("device log id should be the same", deviceLog.id, addedDeviceLogs.get(0).id);
+        assertEquals("device id should be the same", deviceLog.deviceId, addedDeviceLogs.get(0).deviceId);
+        assertEquals("device status should be the same", deviceLog.status, addedDeviceLogs.get(0).status);
+    }
+
+    /**
+     * TC9: test getDevices feature with a page limit from DeviceController class using the prepared mocks
+     *
+     *  input: page limit of one device, and a customer id to filter on
+     *  output: response with one page of devices of the customer
+     *  oracle: response status is ok, response content is the page, and the next page starts after the listed device
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetDevicesPage() throws Exception{
+        initCustomer();
+        initDevice();
+        mockup();
+
+        // prepare the device page
+        List<Device> devices = new ArrayList<Device>();
+        devices.add(device);
+
+        when(deviceRepository.listDevices(any(), eq(100L), anyInt())).thenReturn(supplyAsync(() -> devices));
+
+        // prepare the http request
+        Http.Request req = Helpers.fakeRequest("GET", "/devices?limit=1&after=100&customerId=" + customer.id)
+                .build().withTransientLang(Lang.forCode("en-US"));
+
+        when(msgApi.preferred(req)).thenReturn(msg);
+
+        // call function getDevices
+        CompletionStage<Result> completionStage = deviceController.getDevices(req, Optional.of(1), Optional.of(100L), Optional.empty(), Optional.of(customer.id), Optional.empty());
+
+        // verify function call complete and success
+        await().atMost(1, TimeUnit.SECONDS).untilAsserted(
+                () -> assertThat(completionStage.toCompletableFuture()).isCompletedWithValueMatching(
+                        result -> result.status() == Http.Status.OK, "should return one page of devices"
+                )
+        );
+
+        Result result = completionStage.toCompletableFuture().get();
+        String body = ((HttpEntity.Strict) result.body()).data().decodeString("utf-8");
+        List<Device> retrievedDevices = Arrays.asList(Json.mapper().readValue(body, Device[].class));
+
+        // verify attributes in the response
+        assertTrue("retrieved device page contains one entry", retrievedDevices.size() == 1);
+        assertEquals("device id should be the same", device.id, retrievedDevices.get(0).id);
+        assertEquals("next page should start after the listed device",
+                Optional.of(String.valueOf(device.id)), result.header(DeviceController.NEXT_AFTER));
+    }
+
+    /**
+     * TC10: test updateDevice feature from DeviceController class when the ingest buffer is full
+     *
+     *  input: a device log that is rejected by the repository
+     *  output: response asking the device to retry later
+     *  oracle: response status is service unavailable, with the retry after header
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUpdateDeviceRejected() throws Exception{
+        initCustomer();
+        initDevice();
+        initDeviceLog();
+        mockup();
+
+        CompletableFuture<DeviceLog> rejected = new CompletableFuture<>();
+        rejected.completeExceptionally(new IngestRejectedException(Duration.ofSeconds(2)));
+        when(deviceRepository.updateDeviceLog(any())).thenReturn(rejected);
+
+        // prepare the http request
+        Http.Request req = Helpers.fakeRequest("POST", "/update")
+                .build().withBody(new Http.RequestBody(deviceLog)).withTransientLang(Lang.forCode("en-US"));
+
+        when(msgApi.preferred(req)).thenReturn(msg);
+
+        // call function updateDevice
+        CompletionStage<Result> completionStage = deviceController.updateDevice(req);
+
+        // verify function call complete and rejected
+        await().atMost(1, TimeUnit.SECONDS).untilAsserted(
+                () -> assertThat(completionStage.toCompletableFuture()).isCompletedWithValueMatching(
+                        result -> result.status() == Http.Status.SERVICE_UNAVAILABLE, "should ask the device to retry later"
+                )
+        );
+
+        Result result = completionStage.toCompletableFuture().get();
+        assertEquals("retry hint should be in seconds", Optional.of("2"), result.header(Http.HeaderNames.RETRY_AFTER));
+    }
+
+    /**
+     * TC11: test getDeviceRollups feature from DeviceController class using the prepared mocks
+     *
+     *  input: id of an existing device and a time range
+     *  output: response with the hourly rollups of the device logs
+     *  oracle: response status is ok, response content is the hourly rollups of the device
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetDeviceRollups() throws Exception{
+        initCustomer();
+        initDevice();
+        mockup();
+
+        // prepare the hourly rollup
+        DeviceLogHourly rollup = new DeviceLogHourly();
+        rollup.deviceId = device.id;
+        rollup.hourStart = 3600000L;
+        rollup.status = "ACTIVE";
+        rollup.reportCount = 12;
+        rollup.maxExecutionHours = 10;
+        List<DeviceLogHourly> rollups = new ArrayList<DeviceLogHourly>();
+        rollups.add(rollup);
+
+        when(deviceRepository.listDeviceLogRollups(device.id, 0L, 7200000L)).thenReturn(supplyAsync(() -> rollups));
+
+        // prepare the http request
+        Http.Request req = Helpers.fakeRequest("GET", "/rollups/" + device.id + "?from=0&to=7200000")
+                .build().withTransientLang(Lang.forCode("en-US"));
+
+        when(msgApi.preferred(req)).thenReturn(msg);
+
+        // call function getDeviceRollups
+        CompletionStage<Result> completionStage = deviceController.getDeviceRollups(device.id, Optional.of(0L), Optional.of(7200000L));
+
+        // verify function call complete and success
+        await().atMost(1, TimeUnit.SECONDS).untilAsserted(
+                () -> assertThat(completionStage.toCompletableFuture()).isCompletedWithValueMatching(
+                        result -> result.status() == Http.Status.OK, "should return hourly rollups of the device"
+                )
+        );
+
+        Result result = completionStage.toCompletableFuture().get();
+        String body = ((HttpEntity.Strict) result.body()).data().decodeString("utf-8");
+        List<DeviceLogHourly> retrievedRollups = Arrays.asList(Json.mapper().readValue(body, DeviceLogHourly[].class));
+
+        // verify attributes in the response body
+        assertTrue("retrieved rollup list contains one entry", retrievedRollups.size() == 1);
+        assertEquals("hour should be the same", rollup.hourStart, retrievedRollups.get(0).hourStart);
+        assertEquals("status should be the same", rollup.status, retrievedRollups.get(0).status);
+        assertEquals("report count should be the same", rollup.reportCount, retrievedRollups.get(0).reportCount);
+    }
+
+    /**
+     * TC12: test deviceEvents feature from DeviceController class using the prepared mocks
+     *
+     *  input: a status change of an existing device
+     *  output: response with the status change as a server-sent event
+     *  oracle: response is an event stream, and the event data is the status change in json
+     */
+    @Test
+    public void testDeviceEvents() {
+        initCustomer();
+        initDevice();
+        mockup();
+
+        when(deviceRepository.subscribeDeviceStatuses())
+                .thenReturn(Source.single(new DeviceStatusChange(device.id, "ERROR", 3600000L)));
+
+        // call function deviceEvents
+        Result result = deviceController.deviceEvents();
+
+        assertEquals("response should be ok", Http.Status.OK, result.status());
+        assertEquals("response should be an event stream", Optional.of(Http.MimeTypes.EVENT_STREAM), result.contentType());
+        assertEquals("event should carry the status change",
+                "data: {\"id\":" + device.id + ",\"status\":\"ERROR\",\"updateAt\":3600000}\n\n", contentAsString(result));
+    }
+
+    /**
+     * TC13: test getDevices feature with the devices changed since a given time
+     *
+     *  input: page limit and the update time of the last sync
+     *  output: response with the devices changed since that time
+     *  oracle: the filter carries the sync time, the response carries the fleet version and the time to sync from next
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetDevicesSince() throws Exception {
+        initCustomer();
+        initDevice();
+        mockup();
+
+        List<Device> devices = new ArrayList<Device>();
+        devices.add(device);
+
+        when(deviceRepository.fleetVersion()).thenReturn(OptionalLong.of(42L));
+        when(deviceRepository.listDevices(argThat(filter -> Long.valueOf(3600000L).equals(filter.since)), any(), anyInt()))
+                .thenReturn(supplyAsync(() -> devices));
+
+        Http.Request req = Helpers.fakeRequest("GET", "/devices?limit=10&since=3600000").build();
+
+        // call function getDevices
+        long before = System.currentTimeMillis();
+        Result result = deviceController.getDevices(req, Optional.of(10), Optional.empty(), Optional.empty(), Optional.empty(), Optional.of(3600000L))
+                .toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        assertEquals("response should be ok", Http.Status.OK, result.status());
+        String body = ((HttpEntity.Strict) result.body()).data().decodeString("utf-8");
+        assertEquals("changed device should be returned", device.id, Json.mapper().readValue(body, Device[].class)[0].id);
+        assertTrue("fleet version should be the entity tag", result.header(Http.HeaderNames.ETAG).get().startsWith("\"42-"));
+        long nextSince = Long.parseLong(result.header(DeviceController.NEXT_SINCE).get());
+        assertTrue("next sync should overlap this one", nextSince < before);
+    }
+
+    /**
+     * TC14: test getDevices feature when the client has the current fleet version
+     *
+     *  input: If-None-Match with the entity tag of an earlier response to the same query
+     *  output: response without the devices
+     *  oracle: response status is not modified, and the devices are only read for the earlier response
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetDevicesNotModified() throws Exception {
+        mockup();
+
+        when(deviceRepository.fleetVersion()).thenReturn(OptionalLong.of(42L));
+        when(deviceRepository.listDevices(any(), any(), anyInt())).thenReturn(supplyAsync(ArrayList::new));
+        Http.Request first = Helpers.fakeRequest("GET", "/devices?limit=10").build();
+        String etag = deviceController.getDevices(first, Optional.of(10), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty())
+                .toCompletableFuture().get(1, TimeUnit.SECONDS).header(Http.HeaderNames.ETAG).get();
+
+        Http.Request req = Helpers.fakeRequest("GET", "/devices?limit=10")
+                .header(Http.HeaderNames.IF_NONE_MATCH, "\"41\", " + etag).build();
+
+        // call function getDevices
+        Result result = deviceController.getDevices(req, Optional.of(10), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty())
+                .toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        assertEquals("response should be not modified", Http.Status.NOT_MODIFIED, result.status());
+        assertEquals("fleet version should be the entity tag", Optional.of(etag), result.header(Http.HeaderNames.ETAG));
+        verify(deviceRepository, times(1)).listDevices(any(), any(), anyInt());
+    }
+
+    /**
+     * TC15: test updateDevice feature from DeviceController class for a client that accepts frames
+     *
+     *  input: a device log, from a client that accepts frames
+     *  output: response with the added device log
+     *  oracle: the response is the added device log as a frame
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUpdateDeviceFrame() throws Exception {
+        initCustomer();
+        initDevice();
+        initDeviceLog();
+        mockup();
+
+        when(deviceRepository.updateDeviceLog(argThat(log -> device.id.equals(log.deviceId) && "ACTIVE".equals(log.status))))
+                .thenReturn(supplyAsync(() -> deviceLog));
+
+        Http.Request req = Helpers.fakeRequest("POST", "/update")
+                .header(Http.HeaderNames.ACCEPT, DeviceLogFrames.MIME_TYPE)
+                .build().withBody(new Http.RequestBody(deviceLog));
+
+        // call function updateDevice
+        Result result = deviceController.updateDevice(req).toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        assertEquals("response should be ok", Http.Status.OK, result.status());
+        assertEquals("response should be a frame", Optional.of(DeviceLogFrames.MIME_TYPE), result.contentType());
+        List<DeviceLog> addedDeviceLogs = DeviceLogFrames.decode(((HttpEntity.Strict) result.body()).data());
+        assertEquals("device id should be the same", deviceLog.deviceId, addedDeviceLogs.get(0).deviceId);
+        assertEquals("status should be the same", deviceLog.status, addedDeviceLogs.get(0).status);
+    }
+
+    /**
+     * TC16: test exportDeviceLogs feature from DeviceController class using the prepared mocks
+     *
+     *  input: id of an existing device and a time range
+     *  output: response with the device logs in the range as NDJSON
+     *  oracle: the range carries the device and the times, the response is one json device log per line
+     */
+    @Test
+    public void testExportDeviceLogs() {
+        initCustomer();
+        initDevice();
+        initDeviceLog();
+        mockup();
+
+        when(deviceRepository.exportDeviceLogs(argThat(range -> range.deviceIds.equals(Arrays.asList(device.id))
+                && range.from == 0L && range.to == 7200000L)))
+                .thenReturn(Source.from(Arrays.asList(deviceLog, deviceLog)));
+
+        Http.Request req = Helpers.fakeRequest("GET", "/logs?deviceId=" + device.id + "&from=0&to=7200000").build();
+
+        // call function exportDeviceLogs
+        Result result = deviceController.exportDeviceLogs(req, Arrays.asList(device.id), 0L, Optional.of(7200000L));
+
+        assertEquals("response should be ok", Http.Status.OK, result.status());
+        assertEquals("response should be NDJSON", Optional.of(DeviceLogExport.NDJSON), result.contentType());
+        String[] lines = contentAsString(result).split("\n");
+        assertEquals("response should have one line per log", 2, lines.length);
+        assertEquals("line should be the device log", deviceLog.id, Json.fromJson(Json.parse(lines[1]), DeviceLog.class).id);
+    }
+
+    /**
+     * TC17: test exportDeviceLogs feature as CSV, and with an empty time range
+     *
+     *  input: a device log with an error holding a comma and quotes, with text/csv accepted, and an empty range
+     *  output: responses with the device logs in CSV, and with the error of the range
+     *  oracle: the CSV starts with the header line and quotes the error, the empty range is a bad request
+     */
+    @Test
+    public void testExportDeviceLogsCsv() {
+        initCustomer();
+        initDevice();
+        initDeviceLog();
+        mockup();
+        deviceLog.error = "fan \"2\", stalled";
+
+        when(deviceRepository.exportDeviceLogs(any())).thenReturn(Source.single(deviceLog));
+
+        Http.Request req = Helpers.fakeRequest("GET", "/logs?from=0").header(Http.HeaderNames.ACCEPT, DeviceLogExport.CSV).build();
+
+        // call function exportDeviceLogs
+        Result result = deviceController.exportDeviceLogs(req, new ArrayList<>(), 0L, Optional.empty());
+        Result empty = deviceController.exportDeviceLogs(req, new ArrayList<>(), 7200000L, Optional.of(7200000L));
+
+        assertEquals("response should be CSV", Optional.of(DeviceLogExport.CSV), result.contentType());
+        assertEquals("response should be the header and the device log",
+                "id,deviceId,status,executionHours,error,updateAt\n"
+                        + deviceLog.id + "," + device.id + ",ACTIVE,10,\"fan \"\"2\"\", stalled\"," + deviceLog.updateAt + "\n",
+                contentAsString(result));
+        assertEquals("empty range should be a bad request", Http.Status.BAD_REQUEST, empty.status());
+    }
+
+    /**
+     * TC18: test getSummary feature from DeviceController class using the prepared mocks
+     *
+     *  input: id of an existing customer, while the counts are loaded and once they are
+     *  output: responses with the device counts of the customer
+     *  oracle: service unavailable with a retry hint while loading, then the counts of the customer
+     */
+    @Test
+    public void testGetSummary() {
+        initCustomer();
+        mockup();
+
+        Map<String, Long> statuses = Collections.singletonMap("ACTIVE", 2L);
+        when(deviceRepository.fleetSummary(customer.id))
+                .thenReturn(null)
+                .thenReturn(new FleetSummary(2L, statuses, Collections.singletonMap(customer.id, statuses)));
+
+        // call function getSummary
+        Result loading = deviceController.getSummary(Optional.of(customer.id));
+        Result result = deviceController.getSummary(Optional.of(customer.id));
+
+        assertEquals("response should be unavailable while loading", Http.Status.SERVICE_UNAVAILABLE, loading.status());
+        assertEquals("response should carry a retry hint", Optional.of("1"), loading.header(Http.HeaderNames.RETRY_AFTER));
+        assertEquals("response should be ok", Http.Status.OK, result.status());
+        assertEquals("response should be the counts of the customer",
+                "{\"total\":2,\"statuses\":{\"ACTIVE\":2},\"customers\":{\"" + customer.id + "\":{\"ACTIVE\":2}}}",
+                contentAsString(result));
+    }
+
+    /**
+     * TC19: test getDevices feature when the entity tag of the client does not cover the request
+     *
+     *  input: If-None-Match with the entity tag of another customer, and then of the same query on several nodes
+     *  output: responses of both requests
+     *  oracle: the devices are read for both, the first carries its own entity tag, the second none
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetDevicesModified() throws Exception {
+        mockup();
+
+        when(deviceRepository.fleetVersion()).thenReturn(OptionalLong.of(42L));
+        when(deviceRepository.listDevices(any(), any(), anyInt())).thenReturn(supplyAsync(ArrayList::new));
+        String etag = deviceController.getDevices(Helpers.fakeRequest("GET", "/devices?limit=10&customerId=1").build(),
+                Optional.of(10), Optional.empty(), Optional.empty(), Optional.of(1L), Optional.empty())
+                .toCompletableFuture().get(1, TimeUnit.SECONDS).header(Http.HeaderNames.ETAG).get();
+
+        Http.Request other = Helpers.fakeRequest("GET", "/devices?limit=10&customerId=2")
+                .header(Http.HeaderNames.IF_NONE_MATCH, etag).build();
+        Result otherCustomer = deviceController.getDevices(other, Optional.of(10), Optional.empty(), Optional.empty(), Optional.of(2L), Optional.empty())
+                .toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        when(deviceRepository.fleetVersion()).thenReturn(OptionalLong.empty());
+        Http.Request same = Helpers.fakeRequest("GET", "/devices?limit=10&customerId=1")
+                .header(Http.HeaderNames.IF_NONE_MATCH, etag).build();
+        Result severalNodes = deviceController.getDevices(same, Optional.of(10), Optional.empty(), Optional.empty(), Optional.of(1L), Optional.empty())
+                .toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        assertEquals("devices of another customer should be read", Http.Status.OK, otherCustomer.status());
+        assertTrue("another customer should have another entity tag", !Optional.of(etag).equals(otherCustomer.header(Http.HeaderNames.ETAG)));
+        assertEquals("devices should be read on several nodes", Http.Status.OK, severalNodes.status());
+        assertEquals("no entity tag should be sent on several nodes", Optional.empty(), severalNodes.header(Http.HeaderNames.ETAG));
+    }
+
+    /**
+     * TC20: test removeDevice feature when there is no such device
+     *
+     *  input: id of a device that does not exist
+     *  output: response of the removal
+     *  oracle: response status is not found
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRemoveUnknownDevice() throws Exception {
+        mockup();
+
+        when(deviceRepository.removeDevice(404L)).thenReturn(supplyAsync(Optional::empty));
+
+        Result result = deviceController.removeDevice(404L).toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        assertEquals("an unknown device should not be found", Http.Status.NOT_FOUND, result.status());
+    }
+
+    // read the whole body of a chunked result
+    private String contentAsString(Result result) {
+        ActorSystem system = ActorSystem.create();
+        try {
+            return Helpers.contentAsString(result, Materializer.matFromSystem(system));
+        } finally {
+            system.terminate();
+        }
+    }
+
     private void initCustomer() {
         customer.id = 101175L;
         customer.name = "absT4";
@@ -0,0 +1,195 @@
+package controllers;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import jpa.DeviceRepository;
+import jpa.models.Device;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.http.HttpErrorHandler;
+import play.libs.F;
+import play.libs.Json;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import play.test.Helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for DeviceImportBodyParser
+ */
+public class DeviceImportBodyParserUT {
+
+    private ActorSystem system;
+    private Materializer materializer;
+    private DeviceRepository repository;
+    private List<List<Device>> batches;
+
+    @Before
+    public void setUp() {
+        system = ActorSystem.create();
+        materializer = Materializer.matFromSystem(system);
+        repository = mock(DeviceRepository.class);
+        batches = new ArrayList<>();
+        when(repository.addDevices(anyList())).thenAnswer(invocation -> {
+            List<Device> devices = invocation.getArgument(0);
+            batches.add(new ArrayList<>(devices));
+            return CompletableFuture.completedFuture(devices);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        system.terminate();
+    }
+
+    /**
+     * TC1: test NDJSON devices are imported in batches
+     *
+     * input: five json devices split across chunks, with a blank line, in batches of two
+     * output: the import report, and the batches added to the repository
+     * oracle: all five devices are imported in three batches, without errors
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testImportsNdjson() throws Exception {
+        String body = "{\"customerId\":1,\"description\":\"d1\"}\n"
+                + "{\"customerId\":1,\"description\":\"d2\",\"status\":\"ACTIVE\"}\n\n"
+                + "{\"customerId\":\"2\",\"description\":\"d3\"}\n"
+                + "{\"customerId\":2,\"description\":\"d4\"}\r\n"
+                + "{\"customerId\":3,\"description\":\"d5\",\"updateAt\":3600000}";
+        List<ByteString> chunks = Arrays.asList(ByteString.fromString(body.substring(0, 20)), ByteString.fromString(body.substring(20)));
+
+        DeviceImportReport report = parse(parser(2), "application/x-ndjson", chunks).right.get();
+
+        assertEquals("all devices should be imported", 5, report.imported);
+        assertEquals("no row should fail", 0, report.failed);
+        assertEquals("devices should be added in batches of two", 3, batches.size());
+        assertEquals("customer id should be read from the string", Long.valueOf(2L), batches.get(1).get(0).customerId);
+        assertEquals("update time should be kept", Long.valueOf(3600000L), batches.get(2).get(0).updateAt);
+    }
+
+    /**
+     * TC2: test invalid CSV rows are reported with their lines
+     *
+     * input: a CSV header, a quoted description with a comma, a row without customer, a text for a number,
+     * and a row with too few values
+     * output: the import report, and the devices added to the repository
+     * oracle: the valid row is imported, the three invalid rows are reported by line, and at most two errors are listed
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReportsCsvErrors() throws Exception {
+        String body = "customerId,description,status\n"
+                + "1,\"lab, \"\"north\"\"\",ACTIVE\n"
+                + ",no customer,ACTIVE\n"
+                + "x,bad number,ACTIVE\n"
+                + "1,too few\n";
+
+        DeviceImportReport report = parse(parser(500), "text/csv", Arrays.asList(ByteString.fromString(body))).right.get();
+
+        assertEquals("the valid row should be imported", 1, report.imported);
+        assertEquals("the invalid rows should fail", 3, report.failed);
+        assertEquals("the quoted description should be read", "lab, \"north\"", batches.get(0).get(0).description);
+        assertEquals("the first error should be on line 3", 3, report.errors.get(0).line);
+        assertEquals("the second error should be on line 4", 4, report.errors.get(1).line);
+        assertEquals("only two errors should be listed", 2, report.errors.size());
+        assertTrue("errors should be reported as truncated", report.errorsTruncated);
+    }
+
+    /**
+     * TC3: test a failed batch fails its rows, and the other batches are kept
+     *
+     * input: four json devices in batches of two, the repository failing the second batch
+     * output: the import report
+     * oracle: the first two rows are imported, the last two fail with the error of the repository
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFailsBatch() throws Exception {
+        CompletableFuture<List<Device>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("duplicate id"));
+        when(repository.addDevices(anyList()))
+                .thenReturn(CompletableFuture.completedFuture(new ArrayList<>()))
+                .thenReturn(failed);
+        String body = "{\"customerId\":1,\"description\":\"d1\"}\n{\"customerId\":1,\"description\":\"d2\"}\n"
+                + "{\"customerId\":1,\"description\":\"d3\"}\n{\"customerId\":1,\"description\":\"d4\"}\n";
+
+        DeviceImportReport report = parse(parser(2), "application/x-ndjson", Arrays.asList(ByteString.fromString(body))).right.get();
+
+        assertEquals("the first batch should be imported", 2, report.imported);
+        assertEquals("the second batch should fail", 2, report.failed);
+        assertEquals("the rows should carry the error of the batch", "duplicate id", report.errors.get(1).error);
+        verify(repository, times(2)).addDevices(anyList());
+    }
+
+    /**
+     * TC4: test unsupported bodies and long lines are rejected
+     *
+     * input: a json array, and a line longer than the max line length
+     * output: the results of parsing
+     * oracle: unsupported media type for the json array, and bad request for the long line
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRejects() throws Exception {
+        String description = new String(new char[300]).replace('\0', 'x');
+        String body = "{\"customerId\":1,\"description\":\"" + description + "\"}\n";
+
+        F.Either<Result, DeviceImportReport> json = parse(parser(2), Http.MimeTypes.JSON, Arrays.asList(ByteString.fromString("[]")));
+        F.Either<Result, DeviceImportReport> longLine = parse(parser(2), "application/x-ndjson", Arrays.asList(ByteString.fromString(body)));
+
+        assertEquals(Http.Status.UNSUPPORTED_MEDIA_TYPE, json.left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST, longLine.left.get().status());
+        assertFalse("nothing should be added", batches.size() > 0);
+    }
+
+    private F.Either<Result, DeviceImportReport> parse(DeviceImportBodyParser parser, String contentType, List<ByteString> chunks) throws Exception {
+        Http.Request request = Helpers.fakeRequest("POST", "/add/devices").header(Http.HeaderNames.CONTENT_TYPE, contentType).build();
+        return parser.apply(request).run(Source.from(chunks), materializer).toCompletableFuture().get(1, TimeUnit.SECONDS);
+    }
+
+    private DeviceImportBodyParser parser(int batchSize) {
+        Config config = ConfigFactory.parseString("deviceImport { batchSize = " + batchSize + ", maxLineLength = 256, maxErrors = 2 }")
+                .withFallback(ConfigFactory.load());
+        return new DeviceImportBodyParser(repository, config, new ErrorHandler(), Json.mapper());
+    }
+
+    // answers client errors with their status only
+    private static class ErrorHandler implements HttpErrorHandler {
+
+        @Override
+        public CompletionStage<Result> onClientError(Http.RequestHeader request, int statusCode, String message) {
+            return CompletableFuture.completedFuture(Results.status(statusCode, message));
+        }
+
+        @Override
+        public CompletionStage<Result> onServerError(Http.RequestHeader request, Throwable exception) {
+            return CompletableFuture.completedFuture(Results.internalServerError());
+        }
+    }
+}
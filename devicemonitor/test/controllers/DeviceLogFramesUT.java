@@ -0,0 +1,221 @@
+package controllers;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.util.ByteString;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import jpa.DbExecuteContext;
+import jpa.DeviceLogCache;
+import jpa.DeviceShards;
+import jpa.DeviceStatusWrites;
+import jpa.IdGenerator;
+import jpa.JPADeviceRepository;
+import jpa.ReplicaExecuteContext;
+import jpa.models.DeviceLog;
+import metrics.MetricsRegistry;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for DeviceLogFrames
+ */
+public class DeviceLogFramesUT {
+
+    /**
+     * TC1: test device logs are decoded as they were encoded
+     *
+     * input: a log of a known status without an error, and a log of another status with an error
+     * output: the decoded device logs
+     * oracle: all attributes of both logs are the same as the encoded ones
+     */
+    @Test
+    public void testRoundTrip() {
+        DeviceLog active = deviceLog(203375L, "ACTIVE", null, 1614556800000L);
+        DeviceLog unknown = deviceLog(-1L, "REBOOTING", "\u00fcberhitzt", 1614556800001L);
+
+        List<DeviceLog> decoded = DeviceLogFrames.decode(DeviceLogFrames.encode(Arrays.asList(active, unknown)));
+
+        assertEquals("both logs should be decoded", 2, decoded.size());
+        assertSame(active, decoded.get(0));
+        assertSame(unknown, decoded.get(1));
+    }
+
+    /**
+     * TC2: test a log of a known status without an error is compact
+     *
+     * input: a log of a known status without an error
+     * output: the encoded frame
+     * oracle: the frame takes 24 bytes
+     */
+    @Test
+    public void testFrameSize() {
+        ByteString frame = DeviceLogFrames.encode(Collections.singletonList(deviceLog(203375L, "ERROR", "", 1614556800000L)));
+
+        assertEquals("frame should take 24 bytes", 24, frame.size());
+    }
+
+    /**
+     * TC3: test malformed frames are rejected
+     *
+     * input: a truncated frame, and a frame of an unknown version
+     * output: the outcome of decoding
+     * oracle: decoding fails with IllegalArgumentException
+     */
+    @Test
+    public void testMalformed() {
+        ByteString frame = DeviceLogFrames.encode(Collections.singletonList(deviceLog(203375L, "ACTIVE", "", 1L)));
+
+        assertRejected(frame.take(frame.size() - 1));
+        assertRejected(ByteString.fromArray(new byte[]{2}).concat(frame.drop(1)));
+    }
+
+    /**
+     * TC4: test unreported fields are decoded as a device log posted as json
+     *
+     * input: a frame with an empty error and an update time of 0
+     * output: the decoded device log
+     * oracle: the error is null, and the update time is the time the frame is received
+     */
+    @Test
+    public void testUnreported() {
+        long before = System.currentTimeMillis();
+        DeviceLog decoded = DeviceLogFrames.decode(DeviceLogFrames.encode(
+                Collections.singletonList(deviceLog(203375L, "ACTIVE", "", null)))).get(0);
+        long after = System.currentTimeMillis();
+
+        assertNull("empty error should be decoded as no error", decoded.error);
+        assertTrue("unreported update time should be the receive time", decoded.updateAt >= before && decoded.updateAt <= after);
+    }
+
+    /**
+     * TC5: test a frame without an update time is persisted
+     *
+     * input: a frame with an update time of 0, for a device of an embedded H2 database
+     * output: the update time of the persisted device log
+     * oracle: the device log is persisted, with the time the frame is received
+     */
+    @Test
+    public void testPersistsUnreportedUpdateTime() throws Exception {
+        Config config = ConfigFactory.load();
+        ActorSystem system = ActorSystem.create("frames", config);
+        MetricsRegistry metrics = new MetricsRegistry();
+        // evolutions are read by the name of the database, every case gets a database of its own
+        Database database = Databases.createFrom("default", "org.h2.Driver", "jdbc:h2:mem:frames_" + System.nanoTime() + ";MODE=MySQL");
+        EntityManagerFactory emf = null;
+        try {
+            Evolutions.applyEvolutions(database);
+            database.withConnection(connection -> {
+                try (PreparedStatement customer = connection.prepareStatement("insert into customer (id, name) values (1, 'customer')");
+                     PreparedStatement device = connection.prepareStatement(
+                             "insert into device (id, description, customer_id, update_at, status) values (1, 'device', 1, 0, 'ACTIVE')")) {
+                    customer.executeUpdate();
+                    device.executeUpdate();
+                }
+            });
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("javax.persistence.nonJtaDataSource", database.getDataSource());
+            properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+            properties.put("hibernate.cache.region_prefix", "frames_" + System.nanoTime());
+            EntityManagerFactory unit = Persistence.createEntityManagerFactory("shardPersistenceUnit", properties);
+            emf = unit;
+            JPAApi jpaApi = mock(JPAApi.class);
+            when(jpaApi.withTransaction(ArgumentMatchers.<Function<EntityManager, Object>>any()))
+                    .thenAnswer(invocation -> withTransaction(unit, invocation.getArgument(0)));
+            JPADeviceRepository deviceRepository = new JPADeviceRepository(jpaApi, database,
+                    new DbExecuteContext(system, config, metrics), new ReplicaExecuteContext(system, config, metrics),
+                    new DeviceShards(config, null, system, metrics, null), new IdGenerator(config), new DeviceStatusWrites(config),
+                    new DeviceLogCache(config), config, Materializer.matFromSystem(system), mock(ApplicationLifecycle.class), metrics);
+
+            long before = System.currentTimeMillis();
+            DeviceLog log = DeviceLogFrames.decode(DeviceLogFrames.encode(
+                    Collections.singletonList(deviceLog(1L, "ERROR", "disk full", null)))).get(0);
+            long after = System.currentTimeMillis();
+            DeviceLog persisted = deviceRepository.updateDeviceLog(log).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+            long updateAt = database.withConnection(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("select update_at from device_log where id = ?")) {
+                    statement.setLong(1, persisted.id);
+                    try (ResultSet result = statement.executeQuery()) {
+                        assertTrue("device log should be persisted", result.next());
+                        return result.getLong(1);
+                    }
+                }
+            });
+            assertTrue("persisted update time should be the receive time", updateAt >= before && updateAt <= after);
+        } finally {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            if (emf != null) {
+                emf.close();
+            }
+            database.shutdown();
+        }
+    }
+
+    private static void assertRejected(ByteString frames) {
+        try {
+            DeviceLogFrames.decode(frames);
+            fail("malformed frame should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertSame(DeviceLog expected, DeviceLog actual) {
+        assertEquals("device id should be the same", expected.deviceId, actual.deviceId);
+        assertEquals("status should be the same", expected.status, actual.status);
+        assertEquals("execution hours should be the same", expected.executionHours, actual.executionHours);
+        assertEquals("error should be the same", expected.error, actual.error);
+        assertEquals("update time should be the same", expected.updateAt, actual.updateAt);
+    }
+
+    private static DeviceLog deviceLog(Long deviceId, String status, String error, Long updateAt) {
+        DeviceLog log = new DeviceLog();
+        log.deviceId = deviceId;
+        log.status = status;
+        log.executionHours = 10;
+        log.error = error;
+        log.updateAt = updateAt;
+        return log;
+    }
+
+    private static <T> T withTransaction(EntityManagerFactory emf, Function<EntityManager, T> function) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            T result = function.apply(em);
+            tx.commit();
+            return result;
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package controllers;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.typesafe.config.ConfigFactory;
+import jpa.models.DeviceLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.http.HttpErrorHandler;
+import play.libs.F;
+import play.libs.Json;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import play.test.Helpers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test class for DeviceLogsBodyParser
+ */
+public class DeviceLogsBodyParserUT {
+
+    private ActorSystem system;
+    private Materializer materializer;
+
+    @Before
+    public void setUp() {
+        system = ActorSystem.create();
+        materializer = Materializer.matFromSystem(system);
+    }
+
+    @After
+    public void tearDown() {
+        system.terminate();
+    }
+
+    /**
+     * TC1: test a batch is read from a json array and from frames
+     *
+     * input: a json array of two device logs, and the same device logs as frames
+     * output: the parsed device logs
+     * oracle: both batches hold the two device logs in order
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadsJsonAndFrames() throws Exception {
+        String json = "[{\"deviceId\":1,\"status\":\"ACTIVE\",\"error\":\"\"},{\"deviceId\":\"2\",\"status\":\"ERROR\",\"error\":\"disk full\"}]";
+        DeviceLog[] fromJson = parse(Http.MimeTypes.JSON, ByteString.fromString(json)).right.get();
+        DeviceLog[] fromFrames = parse(DeviceLogFrames.MIME_TYPE, DeviceLogFrames.encode(Arrays.asList(fromJson))).right.get();
+
+        assertEquals("json batch should hold both logs", 2, fromJson.length);
+        assertEquals("second device id should be read from the string", Long.valueOf(2L), fromJson[1].deviceId);
+        assertEquals("second error should be read", "disk full", fromJson[1].error);
+        assertEquals("frames batch should hold both logs", 2, fromFrames.length);
+        assertEquals("frames should keep the order", "ERROR", fromFrames[1].status);
+    }
+
+    /**
+     * TC2: test malformed, empty, incomplete and too long batches are rejected
+     *
+     * input: a json object, an array with a number, an empty array, a log without status, and a body over the max length
+     * output: the results of parsing
+     * oracle: bad request for the malformed, empty and incomplete batches, and request entity too large for the long body
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRejects() throws Exception {
+        assertEquals(Http.Status.BAD_REQUEST, parse(Http.MimeTypes.JSON, ByteString.fromString("{\"deviceId\":1}")).left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST,
+                parse(Http.MimeTypes.JSON, ByteString.fromString("[{\"deviceId\":1,\"status\":\"ACTIVE\"},2]")).left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST, parse(Http.MimeTypes.JSON, ByteString.fromString("[]")).left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST, parse(Http.MimeTypes.JSON, ByteString.fromString("[{\"deviceId\":1}]")).left.get().status());
+
+        String error = String.join("", Collections.nCopies(2048, "x"));
+        assertEquals(Http.Status.REQUEST_ENTITY_TOO_LARGE,
+                parse(Http.MimeTypes.JSON, ByteString.fromString("[{\"error\":\"" + error + "\"}]")).left.get().status());
+    }
+
+    private F.Either<Result, DeviceLog[]> parse(String contentType, ByteString body) throws Exception {
+        DeviceLogsBodyParser parser = new DeviceLogsBodyParser(
+                ConfigFactory.parseString("entityBodyParser.batchMaxLength = 1k"), new ErrorHandler(), Json.mapper());
+        Http.Request request = Helpers.fakeRequest("POST", "/").header(Http.HeaderNames.CONTENT_TYPE, contentType).build();
+        return parser.apply(request).run(Source.single(body), materializer).toCompletableFuture().get(1, TimeUnit.SECONDS);
+    }
+
+    // answers client errors with their status only
+    private static class ErrorHandler implements HttpErrorHandler {
+
+        @Override
+        public CompletionStage<Result> onClientError(Http.RequestHeader request, int statusCode, String message) {
+            return CompletableFuture.completedFuture(Results.status(statusCode, message));
+        }
+
+        @Override
+        public CompletionStage<Result> onServerError(Http.RequestHeader request, Throwable exception) {
+            return CompletableFuture.completedFuture(Results.internalServerError());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package controllers;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import jpa.models.Customer;
+import jpa.models.Device;
+import jpa.models.DeviceLog;
+import org.hibernate.validator.messageinterpolation.ParameterMessageInterpolator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.data.FormFactory;
+import play.data.format.Formatters;
+import play.http.HttpErrorHandler;
+import play.i18n.MessagesApi;
+import play.libs.F;
+import play.libs.Json;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import play.test.Helpers;
+
+import javax.validation.Validation;
+import javax.validation.ValidatorFactory;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test class for EntityBodyParser
+ */
+public class EntityBodyParserUT {
+
+    private ActorSystem system;
+    private Materializer materializer;
+
+    @Before
+    public void setUp() {
+        system = ActorSystem.create();
+        materializer = Materializer.matFromSystem(system);
+    }
+
+    @After
+    public void tearDown() {
+        system.terminate();
+    }
+
+    /**
+     * TC1: test a json device log is read into a device log
+     *
+     * input: a json device log with a number in a string, a null error and an unknown nested field
+     * output: the parsed device log
+     * oracle: all known fields are read, the unknown field is skipped
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadsJson() throws Exception {
+        String json = "{\"deviceId\":\"203375\",\"status\":\"ACTIVE\",\"extra\":{\"a\":[1,2]},\"executionHours\":10,\"error\":null,\"updateAt\":3600000}";
+
+        DeviceLog log = parse(deviceLogParser("jackson"), Http.MimeTypes.JSON, ByteString.fromString(json)).right.get();
+
+        assertEquals("device id should be read from the string", Long.valueOf(203375L), log.deviceId);
+        assertEquals("status should be read", "ACTIVE", log.status);
+        assertEquals("execution hours should be read", 10, log.executionHours);
+        assertEquals("error should be null", null, log.error);
+        assertEquals("update time should be read", Long.valueOf(3600000L), log.updateAt);
+    }
+
+    /**
+     * TC2: test malformed and too long bodies are rejected
+     *
+     * input: truncated json, json followed by more content, a text for a number, and a body over the max length
+     * output: the results of parsing
+     * oracle: bad request for the malformed bodies, and request entity too large for the long body
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRejects() throws Exception {
+        DeviceLogBodyParser parser = deviceLogParser("jackson");
+
+        assertEquals(Http.Status.BAD_REQUEST, parse(parser, Http.MimeTypes.JSON, ByteString.fromString("{\"deviceId\":1")).left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST, parse(parser, Http.MimeTypes.JSON, ByteString.fromString("{\"deviceId\":1} {}")).left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST, parse(parser, Http.MimeTypes.JSON, ByteString.fromString("{\"executionHours\":\"ten\"}")).left.get().status());
+
+        String error = String.join("", Collections.nCopies(2048, "x"));
+        assertEquals(Http.Status.REQUEST_ENTITY_TOO_LARGE,
+                parse(parser, Http.MimeTypes.JSON, ByteString.fromString("{\"error\":\"" + error + "\"}")).left.get().status());
+    }
+
+    /**
+     * TC3: test bodies are bound with the form binder
+     *
+     * input: an url encoded customer in the jackson mode, and a json customer in the form mode
+     * output: the parsed customers
+     * oracle: both customers have the posted name
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBindsForms() throws Exception {
+        Customer fromForm = parse(customerParser("jackson"), Http.MimeTypes.FORM, ByteString.fromString("name=ab%20c&id=")).right.get();
+        Customer fromJson = parse(customerParser("form"), Http.MimeTypes.JSON, ByteString.fromString("{\"name\":\"ab c\"}")).right.get();
+
+        assertEquals("customer should be bound from the form", "ab c", fromForm.name);
+        assertEquals("customer should be bound from the json", "ab c", fromJson.name);
+    }
+
+    /**
+     * TC4: test a device log frame is decoded
+     *
+     * input: a device log encoded as a frame, and two frames
+     * output: the results of parsing
+     * oracle: the single frame is the device log, two frames are a bad request
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDecodesFrame() throws Exception {
+        DeviceLog log = new DeviceLog();
+        log.deviceId = 203375L;
+        log.status = "ERROR";
+        log.error = "";
+        ByteString frame = DeviceLogFrames.encode(Collections.singletonList(log));
+
+        F.Either<Result, DeviceLog> single = parse(deviceLogParser("jackson"), DeviceLogFrames.MIME_TYPE, frame);
+        F.Either<Result, DeviceLog> twice = parse(deviceLogParser("jackson"), DeviceLogFrames.MIME_TYPE, frame.concat(frame));
+
+        assertEquals("device id should be decoded", log.deviceId, single.right.get().deviceId);
+        assertEquals("status should be decoded", log.status, single.right.get().status);
+        assertTrue("two frames should be rejected", twice.left.isPresent());
+    }
+
+    /**
+     * TC5: test entities missing a required field are rejected
+     *
+     * input: an empty json device log, a json device log without status, a json device without description,
+     *        and an url encoded customer without name
+     * output: the results of parsing
+     * oracle: bad request for all of them
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRejectsMissingFields() throws Exception {
+        assertEquals(Http.Status.BAD_REQUEST, parse(deviceLogParser("jackson"), Http.MimeTypes.JSON, ByteString.fromString("{}")).left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST,
+                parse(deviceLogParser("jackson"), Http.MimeTypes.JSON, ByteString.fromString("{\"deviceId\":1}")).left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST,
+                parse(deviceParser("jackson"), Http.MimeTypes.JSON, ByteString.fromString("{\"customerId\":1}")).left.get().status());
+        assertEquals(Http.Status.BAD_REQUEST, parse(customerParser("jackson"), Http.MimeTypes.FORM, ByteString.fromString("id=")).left.get().status());
+    }
+
+    /**
+     * TC6: test a missing update time is the time the body is parsed
+     *
+     * input: a json device log, a json device and an url encoded device, all without an update time
+     * output: the parsed entities
+     * oracle: each entity has an update time between the times before and after parsing
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDefaultsUpdateTime() throws Exception {
+        long before = System.currentTimeMillis();
+        DeviceLog log = parse(deviceLogParser("jackson"), Http.MimeTypes.JSON,
+                ByteString.fromString("{\"deviceId\":1,\"status\":\"ACTIVE\"}")).right.get();
+        Device device = parse(deviceParser("jackson"), Http.MimeTypes.JSON,
+                ByteString.fromString("{\"customerId\":1,\"description\":\"d\"}")).right.get();
+        Device bound = parse(deviceParser("jackson"), Http.MimeTypes.FORM, ByteString.fromString("customerId=1&description=d")).right.get();
+        long after = System.currentTimeMillis();
+
+        for (Long updateAt : new Long[]{log.updateAt, device.updateAt, bound.updateAt}) {
+            assertTrue("update time should be the parse time", updateAt != null && updateAt >= before && updateAt <= after);
+        }
+    }
+
+    private <T> F.Either<Result, T> parse(EntityBodyParser<T> parser, String contentType, ByteString body) throws Exception {
+        Http.Request request = Helpers.fakeRequest("POST", "/").header(Http.HeaderNames.CONTENT_TYPE, contentType).build();
+        return parser.apply(request).run(Source.single(body), materializer).toCompletableFuture().get(1, TimeUnit.SECONDS);
+    }
+
+    private static DeviceLogBodyParser deviceLogParser(String binding) {
+        return new DeviceLogBodyParser(config(binding), new ErrorHandler(), formFactory(), Json.mapper());
+    }
+
+    private static DeviceBodyParser deviceParser(String binding) {
+        return new DeviceBodyParser(config(binding), new ErrorHandler(), formFactory(), Json.mapper());
+    }
+
+    private static CustomerBodyParser customerParser(String binding) {
+        return new CustomerBodyParser(config(binding), new ErrorHandler(), formFactory(), Json.mapper());
+    }
+
+    private static Config config(String binding) {
+        return ConfigFactory.parseString("entityBodyParser { binding = " + binding + ", maxLength = 1k }")
+                .withFallback(ConfigFactory.load());
+    }
+
+    private static FormFactory formFactory() {
+        MessagesApi messagesApi = mock(MessagesApi.class);
+        ValidatorFactory validatorFactory = Validation.byDefaultProvider().configure()
+                .messageInterpolator(new ParameterMessageInterpolator())
+                .buildValidatorFactory();
+        return new FormFactory(messagesApi, new Formatters(messagesApi), validatorFactory, ConfigFactory.load());
+    }
+
+    // answers client errors with their status only
+    private static class ErrorHandler implements HttpErrorHandler {
+
+        @Override
+        public CompletionStage<Result> onClientError(Http.RequestHeader request, int statusCode, String message) {
+            return CompletableFuture.completedFuture(Results.status(statusCode, message));
+        }
+
+        @Override
+        public CompletionStage<Result> onServerError(Http.RequestHeader request, Throwable exception) {
+            return CompletableFuture.completedFuture(Results.internalServerError());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package jpa;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Unit test class for DbExecuteContext
+ */
+public class DbExecuteContextUT {
+
+    private ActorSystem actorSystem;
+
+    @Before
+    public void setUp() {
+        actorSystem = ActorSystem.create("test", config("dispatcher"));
+    }
+
+    @After
+    public void tearDown() {
+        actorSystem.terminate();
+    }
+
+    /**
+     * TC1: test tasks run on the database dispatcher by default
+     *
+     * input: tasks executed on the context in dispatcher mode
+     * output: all tasks run
+     * oracle: assert the tasks run on a thread of the database dispatcher
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDispatcherMode() throws Exception {
+        DbExecuteContext context = new DbExecuteContext(actorSystem, config("dispatcher"), new MetricsRegistry());
+        CountDownLatch done = new CountDownLatch(10);
+        AtomicInteger onDispatcher = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            context.execute(() -> {
+                if (Thread.currentThread().getName().contains("database.dispatcher")) {
+                    onDispatcher.incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue("all tasks should run", done.await(5, TimeUnit.SECONDS));
+        assertEquals("tasks should run on the database dispatcher", 10, onDispatcher.get());
+    }
+
+    /**
+     * TC2: test concurrency is limited to maxConcurrency in virtual mode
+     *
+     * input: more blocking tasks than maxConcurrency executed on the context in virtual mode
+     * output: all tasks run
+     * oracle: assert no more than maxConcurrency tasks run at once
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testVirtualModeLimitsConcurrency() throws Exception {
+        assumeTrue("virtual threads are not available on this JDK", hasVirtualThreads());
+
+        DbExecuteContext context = new DbExecuteContext(actorSystem, config("virtual"), new MetricsRegistry());
+        CountDownLatch done = new CountDownLatch(50);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 50; i++) {
+            context.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue("all tasks should run", done.await(5, TimeUnit.SECONDS));
+        assertTrue("no more than 3 tasks should run at once", maxRunning.get() <= 3);
+    }
+
+    /**
+     * TC3: test an unknown executor is rejected
+     *
+     * input: database.executor set to an unknown value
+     * output: the context is not created
+     * oracle: assert IllegalArgumentException is thrown
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMode() {
+        new DbExecuteContext(actorSystem, config("forkjoin"), new MetricsRegistry());
+    }
+
+    private static Config config(String executor) {
+        return ConfigFactory.parseString("database.executor = " + executor + "\n"
+                + "database.virtual.maxConcurrency = 3\n"
+                + "database.dispatcher { executor = thread-pool-executor, thread-pool-executor.fixed-pool-size = 3 }")
+                .withFallback(ConfigFactory.load());
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package jpa;
+
+import jpa.models.DeviceLog;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test class for DeviceLogCache
+ */
+public class DeviceLogCacheUT {
+
+    /**
+     * TC1: test the cache keeps the newest log of a device
+     *
+     * input: two logs of the same device, the newer one is put first
+     * output: the cached log of the device
+     * oracle: the log with the higher id is kept, and the lookups are counted
+     */
+    @Test
+    public void testKeepsNewestLog() {
+        DeviceLogCache cache = new DeviceLogCache(10, Duration.ofSeconds(30), System::nanoTime);
+
+        assertNull("device is not cached yet", cache.get(1L));
+        cache.put(deviceLog(20L, 1L));
+        cache.put(deviceLog(10L, 1L));
+
+        assertEquals("newest log should be kept", Long.valueOf(20L), cache.get(1L).id);
+        assertEquals("one lookup should hit", 1, cache.hits());
+        assertEquals("one lookup should miss", 1, cache.misses());
+    }
+
+    /**
+     * TC2: test the cache is bounded
+     *
+     * input: logs of three devices into a cache of size two
+     * output: the number of cached devices
+     * oracle: one device is evicted
+     */
+    @Test
+    public void testIsBounded() {
+        DeviceLogCache cache = new DeviceLogCache(2, Duration.ofSeconds(30), System::nanoTime);
+
+        cache.put(deviceLog(1L, 1L));
+        cache.put(deviceLog(2L, 2L));
+        cache.put(deviceLog(3L, 3L));
+
+        assertEquals("cache should be bounded", 2, cache.size());
+    }
+
+    /**
+     * TC3: test a cached log expires after the configured time
+     *
+     * input: a cached log, read before and after 30 seconds have passed on the cache ticker
+     * output: the cached log of the device
+     * oracle: the log is served within the 30 seconds, and read from db afterwards
+     */
+    @Test
+    public void testExpiresAfterWrite() {
+        AtomicLong now = new AtomicLong();
+        DeviceLogCache cache = new DeviceLogCache(10, Duration.ofSeconds(30), now::get);
+
+        cache.put(deviceLog(1L, 1L));
+        now.addAndGet(Duration.ofSeconds(29).toNanos());
+        assertEquals("log should be served within the expiry", Long.valueOf(1L), cache.get(1L).id);
+
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertNull("log should expire, a newer one may be persisted by another node", cache.get(1L));
+    }
+
+    private DeviceLog deviceLog(Long id, Long deviceId) {
+        DeviceLog log = new DeviceLog();
+        log.id = id;
+        log.deviceId = deviceId;
+        log.status = "ACTIVE";
+        log.updateAt = System.currentTimeMillis();
+        return log;
+    }
+}
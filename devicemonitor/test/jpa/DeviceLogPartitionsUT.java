@@ -0,0 +1,67 @@
+package jpa;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for DeviceLogPartitions
+ */
+public class DeviceLogPartitionsUT {
+
+    /**
+     * TC1: test the partitions out of the retention are dropped, and the coming days are created
+     *
+     * input: daily partitions from 2021-03-01 to 2021-03-10, on 2021-03-10 with a retention of 7 days
+     * output: the planned partitions
+     * oracle: the partitions up to 2021-03-02 are dropped, and the partitions from 2021-03-11 to 2021-03-12 are created
+     */
+    @Test
+    public void testPlansExpiredAndUpcomingPartitions() {
+        Map<String, Long> partitions = new LinkedHashMap<>();
+        for (int day = 1; day <= 10; day++) {
+            partitions.put(String.format("p202103%02d", day), startOf(LocalDate.of(2021, 3, day + 1)));
+        }
+        partitions.put(DeviceLogPartitions.CATCH_ALL, Long.MAX_VALUE);
+
+        long now = startOf(LocalDate.of(2021, 3, 10)) + Duration.ofHours(12).toMillis();
+        DeviceLogPartitions plan = new DeviceLogPartitions(partitions, now, Duration.ofDays(7), 2);
+
+        assertEquals("partitions out of the retention should be dropped",
+                Arrays.asList("p20210301", "p20210302"), plan.expired);
+        assertEquals("partitions of the coming days should be created",
+                Arrays.asList("p20210311", "p20210312"), Arrays.asList(plan.upcoming.keySet().toArray()));
+        assertEquals("partition should end at the end of its day",
+                Long.valueOf(startOf(LocalDate.of(2021, 3, 12))), plan.upcoming.get("p20210311"));
+    }
+
+    /**
+     * TC2: test nothing is planned for a device_log that is not partitioned
+     *
+     * input: no partitions
+     * output: the planned partitions
+     * oracle: the plan is marked not partitioned, and neither drops nor creates partitions
+     */
+    @Test
+    public void testNotPartitioned() {
+        DeviceLogPartitions plan = new DeviceLogPartitions(Collections.emptyMap(), startOf(LocalDate.of(2021, 3, 10)), Duration.ofDays(7), 2);
+
+        assertFalse("plan should be marked not partitioned", plan.partitioned);
+        assertTrue("no partition should be dropped", plan.expired.isEmpty());
+        assertTrue("no partition should be created", plan.upcoming.isEmpty());
+    }
+
+    private long startOf(LocalDate day) {
+        return day.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,153 @@
+package jpa;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test class for the claimed maintenance runs and the hourly rollups of SqlExecutor,
+ * on an embedded H2 database
+ */
+public class DeviceLogRollupUT {
+
+    private static final long HOUR = 3600000L;
+
+    private Database database;
+    private EntityManagerFactory emf;
+    private SqlExecutor sqlExecutor;
+
+    @Before
+    public void setUp() {
+        database = Databases.inMemory("rollup", Collections.singletonMap("MODE", "MySQL"), Collections.emptyMap());
+        Evolutions.applyEvolutions(database, new ShardEvolutionsReader(DeviceLogRollupUT.class.getClassLoader()));
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("javax.persistence.nonJtaDataSource", database.getDataSource());
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.cache.region_prefix", database.getName());
+        emf = Persistence.createEntityManagerFactory("shardPersistenceUnit", properties);
+        sqlExecutor = new SqlExecutor(new IdGenerator(0), new DeviceStatusWrites(60000), false);
+    }
+
+    @After
+    public void tearDown() {
+        emf.close();
+        database.shutdown();
+    }
+
+    /**
+     * TC1: test a maintenance run is claimed once per interval
+     *
+     * input: claims of the rollup at 0, at half an interval, and at one interval, with an interval of 1 minute
+     * output: the claimed runs
+     * oracle: the first claim gets the initial run time, the second is refused, the third gets the first claim time
+     */
+    @Test
+    public void testClaimsOncePerInterval() {
+        Duration interval = Duration.ofMinutes(1);
+        long now = 10 * HOUR;
+
+        assertEquals("first run should be claimed", Optional.of(0L),
+                withTransaction(em -> sqlExecutor.claimMaintenanceRun(em, "rollup", now, interval)));
+        assertFalse("run within the interval should not be claimed",
+                withTransaction(em -> sqlExecutor.claimMaintenanceRun(em, "rollup", now + 30000, interval)).isPresent());
+        assertEquals("run after the interval should be claimed with the previous run time", Optional.of(now),
+                withTransaction(em -> sqlExecutor.claimMaintenanceRun(em, "rollup", now + 60000, interval)));
+    }
+
+    /**
+     * TC2: test only the hours that got new logs are recomputed, and written over their rollups
+     *
+     * input: logs in two hours rolled up, a rollup row of the first hour changed by hand, then a new log in the
+     *        second hour rolled up after the id of the earlier logs
+     * output: the rollup rows
+     * oracle: the second hour counts the new log, the first hour is left as it is
+     */
+    @Test
+    public void testRecomputesChangedHours() {
+        insertLog(1, 1L, "ACTIVE", HOUR + 1, "");
+        insertLog(2, 1L, "ACTIVE", 2 * HOUR + 1, "");
+        withTransaction(em -> sqlExecutor.rollupDeviceLogs(em, 0, Long.MIN_VALUE));
+        assertEquals("every hour should be rolled up",
+                Arrays.asList("1 3600000 ACTIVE 1 0", "1 7200000 ACTIVE 1 0"), selectRollups());
+
+        execute("update device_log_hourly set report_count = 99 where hour_start = 3600000");
+        insertLog(3, 1L, "ACTIVE", 2 * HOUR + 2, "disk full");
+        withTransaction(em -> sqlExecutor.rollupDeviceLogs(em, 0, 2));
+
+        assertEquals("only the hour of the new log should be recomputed",
+                Arrays.asList("1 3600000 ACTIVE 99 0", "1 7200000 ACTIVE 2 1"), selectRollups());
+    }
+
+    private <T> T withTransaction(Function<EntityManager, T> function) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            T result = function.apply(em);
+            tx.commit();
+            return result;
+        } finally {
+            em.close();
+        }
+    }
+
+    private void insertLog(long id, Long deviceId, String status, long updateAt, String error) {
+        database.withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into device_log (id, device_id, status, execution_hours, error, update_at) values (?, ?, ?, 1, ?, ?)")) {
+                statement.setLong(1, id);
+                statement.setLong(2, deviceId);
+                statement.setString(3, status);
+                statement.setString(4, error);
+                statement.setLong(5, updateAt);
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    private void execute(String sql) {
+        database.withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    private List<String> selectRollups() {
+        return database.withConnection(connection -> {
+            List<String> rows = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "select device_id, hour_start, status, report_count, error_count from device_log_hourly order by hour_start");
+                 ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    rows.add(result.getLong(1) + " " + result.getLong(2) + " " + result.getString(3) + " "
+                            + result.getLong(4) + " " + result.getLong(5));
+                }
+            }
+            return rows;
+        });
+    }
+}
@@ -0,0 +1,246 @@
+package jpa;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import jpa.models.Device;
+import jpa.models.DeviceLog;
+import metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import play.db.DBApi;
+import play.db.Database;
+import play.db.Databases;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for DeviceShards and the sharded paths of JPADeviceRepository,
+ * with two embedded H2 databases as shards
+ */
+public class DeviceShardsUT {
+
+    private static final int DEVICES = 20;
+
+    private Database primary;
+    private Map<String, Database> shardDatabases;
+    private EntityManagerFactory primaryEmf;
+    private ActorSystem system;
+    private DeviceShards shards;
+    private JPADeviceRepository deviceRepository;
+
+    @Before
+    public void setUp() {
+        Config config = ConfigFactory.parseString("database.shards.enabled = true\n"
+                + "database.shards.nodes.shard0 = ${database.shards.template}\n"
+                + "database.shards.nodes.shard1 = ${database.shards.template}")
+                .withFallback(ConfigFactory.load())
+                .resolve();
+        system = ActorSystem.create("shards", config);
+        MetricsRegistry metrics = new MetricsRegistry();
+        ApplicationLifecycle lifecycle = mock(ApplicationLifecycle.class);
+
+        shardDatabases = new HashMap<>();
+        DBApi dbApi = mock(DBApi.class);
+        for (String name : new String[]{"shard0", "shard1"}) {
+            // every case gets databases of its own, a connection left open by a case keeps its database alive
+            Database database = Databases.inMemory(name + "_" + System.nanoTime(), Collections.singletonMap("MODE", "MySQL"), Collections.emptyMap());
+            shardDatabases.put(name, database);
+            when(dbApi.getDatabase(name)).thenReturn(database);
+        }
+        shards = new DeviceShards(config, dbApi, system, metrics, lifecycle);
+
+        // the primary only answers what is not sharded, it is not read by the cases below
+        primary = Databases.inMemory("primary_" + System.nanoTime(), Collections.singletonMap("MODE", "MySQL"), Collections.emptyMap());
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("javax.persistence.nonJtaDataSource", primary.getDataSource());
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.cache.region_prefix", primary.getName());
+        primaryEmf = Persistence.createEntityManagerFactory("shardPersistenceUnit", properties);
+        JPAApi jpaApi = mock(JPAApi.class);
+        when(jpaApi.withTransaction(ArgumentMatchers.<Function<EntityManager, Object>>any()))
+                .thenAnswer(invocation -> withTransaction(primaryEmf, invocation.getArgument(0)));
+
+        deviceRepository = new JPADeviceRepository(jpaApi, primary, new DbExecuteContext(system, config, metrics),
+                new ReplicaExecuteContext(system, config, metrics), shards, new IdGenerator(0), new DeviceStatusWrites(config),
+                new DeviceLogCache(config), config, Materializer.matFromSystem(system), lifecycle, metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // the fleet counters are loaded on the dispatchers of the system, before the databases are closed
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        shards.all().forEach(Shard::close);
+        primaryEmf.close();
+        shardDatabases.values().forEach(Database::shutdown);
+        primary.shutdown();
+    }
+
+    /**
+     * TC1: test every shard is brought to the schema of the default database
+     *
+     * input: two shard databases without a schema
+     * output: the tables of each shard, once the shards are set up
+     * oracle: each shard has the device, device_log and maintenance_run tables of the default evolutions,
+     *         and the lock table the evolutions were applied under
+     */
+    @Test
+    public void testAppliesEvolutionsPerShard() {
+        for (Map.Entry<String, Database> shard : shardDatabases.entrySet()) {
+            assertEquals("devices of " + shard.getKey() + " should be empty", "0", selectOne(shard.getValue(), "select count(*) from device"));
+            assertEquals("device logs of " + shard.getKey() + " should be empty", "0", selectOne(shard.getValue(), "select count(*) from device_log"));
+            assertEquals("maintenance of " + shard.getKey() + " should be seeded",
+                    "2", selectOne(shard.getValue(), "select count(*) from maintenance_run"));
+            assertEquals("evolutions of " + shard.getKey() + " should be applied under the lock",
+                    "1", selectOne(shard.getValue(), "select count(*) from play_evolutions_lock"));
+        }
+    }
+
+    /**
+     * TC2: test devices and their logs are written to the shard of the device
+     *
+     * input: a batch of devices, then a batch with a log of every device
+     * output: the devices and device logs of each shard
+     * oracle: both shards hold devices, each shard holds exactly the devices placed on it and their logs
+     */
+    @Test
+    public void testFansOutWrites() {
+        List<Long> deviceIds = addDevices();
+        List<DeviceLog> logs = new ArrayList<>();
+        for (Long deviceId : deviceIds) {
+            logs.add(log(deviceId, "ERROR"));
+        }
+        assertEquals("every log should be persisted", DEVICES, deviceRepository.updateDeviceLogs(logs).toCompletableFuture().join().size());
+
+        for (Shard shard : shards.all()) {
+            List<String> placed = deviceIds.stream()
+                    .filter(deviceId -> shards.forDevice(deviceId) == shard)
+                    .map(String::valueOf)
+                    .collect(Collectors.toList());
+            Database database = shardDatabases.get(shard.name);
+
+            assertTrue(shard.name + " should hold devices", !placed.isEmpty());
+            assertEquals(shard.name + " should hold the devices placed on it", placed, select(database, "select id from device order by id"));
+            assertEquals(shard.name + " should hold the logs of its devices",
+                    placed, select(database, "select device_id from device_log order by device_id"));
+            assertEquals("status of the devices on " + shard.name + " should be written",
+                    Collections.singletonList("ERROR"), select(database, "select distinct status from device"));
+        }
+    }
+
+    /**
+     * TC3: test reads over every shard are merged in id order
+     *
+     * input: a batch of devices spread over both shards, with a log of every device
+     * output: the first page of devices, the stream of all devices, and the rollups of every shard
+     * oracle: the page and the stream hold the devices in id order across the shards,
+     *         and every shard is rolled up
+     */
+    @Test
+    public void testMergesReads() {
+        List<Long> deviceIds = addDevices();
+        List<DeviceLog> logs = new ArrayList<>();
+        for (Long deviceId : deviceIds) {
+            logs.add(log(deviceId, "ACTIVE"));
+        }
+        deviceRepository.updateDeviceLogs(logs).toCompletableFuture().join();
+
+        List<Long> page = deviceRepository.listDevices(DeviceFilter.ALL, null, 7).toCompletableFuture().join()
+                .stream().map(device -> device.id).collect(Collectors.toList());
+        assertEquals("page should hold the first devices over both shards", deviceIds.subList(0, 7), page);
+
+        List<Long> all = deviceRepository.listDevices(DeviceFilter.ALL, null).runWith(Sink.seq(), Materializer.matFromSystem(system))
+                .toCompletableFuture().join()
+                .stream().map(device -> device.id).collect(Collectors.toList());
+        assertEquals("stream should hold every device in id order", deviceIds, all);
+
+        Map<String, Integer> rollups = deviceRepository.rollupDeviceLogs(System.currentTimeMillis(), Duration.ofMinutes(1), 0)
+                .toCompletableFuture().join();
+        assertEquals("every shard should be rolled up", shardDatabases.keySet(), rollups.keySet());
+        assertEquals("every log should be rolled up", String.valueOf(DEVICES),
+                String.valueOf(shardDatabases.values().stream()
+                        .mapToLong(database -> Long.parseLong(selectOne(database, "select coalesce(sum(report_count), 0) from device_log_hourly")))
+                        .sum()));
+    }
+
+    // ids are generated in order, so the devices are returned in the order they are added
+    private List<Long> addDevices() {
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++) {
+            Device device = new Device();
+            device.customerId = 1L;
+            device.description = "device " + i;
+            device.status = "ACTIVE";
+            device.updateAt = 0L;
+            devices.add(device);
+        }
+        return deviceRepository.addDevices(devices).toCompletableFuture().join()
+                .stream().map(device -> device.id).sorted().collect(Collectors.toList());
+    }
+
+    private static DeviceLog log(Long deviceId, String status) {
+        DeviceLog log = new DeviceLog();
+        log.deviceId = deviceId;
+        log.status = status;
+        log.executionHours = 1;
+        log.error = "";
+        log.updateAt = System.currentTimeMillis();
+        return log;
+    }
+
+    private static <T> T withTransaction(EntityManagerFactory emf, Function<EntityManager, T> function) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            T result = function.apply(em);
+            tx.commit();
+            return result;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static String selectOne(Database database, String sql) {
+        return select(database, sql).get(0);
+    }
+
+    private static List<String> select(Database database, String sql) {
+        return database.withConnection(connection -> {
+            List<String> rows = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(sql);
+                 ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    rows.add(result.getString(1));
+                }
+            }
+            return rows;
+        });
+    }
+}
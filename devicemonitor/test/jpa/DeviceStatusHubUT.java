@@ -0,0 +1,159 @@
+package jpa;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for DeviceStatusHub
+ */
+public class DeviceStatusHubUT {
+
+    private static final long PROBE_DEVICE = 0L;
+
+    private ActorSystem system;
+    private Materializer materializer;
+    private MetricsRegistry metrics;
+
+    @Before
+    public void setUp() {
+        system = ActorSystem.create();
+        materializer = Materializer.matFromSystem(system);
+        metrics = new MetricsRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        system.terminate();
+    }
+
+    /**
+     * TC1: test only the changes of the device status are pushed
+     *
+     * input: a device reported active twice, then failing, then removed, with a heartbeat of one hour
+     * output: the pushed status changes of the device
+     * oracle: active, failing and invalid are pushed once each, in order
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPushesChanges() throws Exception {
+        DeviceStatusHub hub = new DeviceStatusHub(config(16), TimeUnit.HOURS.toMillis(1), materializer, metrics);
+        BlockingQueue<DeviceStatusChange> received = new LinkedBlockingQueue<>();
+        hub.subscribe().runWith(Sink.foreach(received::add), materializer);
+        awaitSubscribed(hub, received);
+
+        hub.reported(1L, "ACTIVE");
+        hub.reported(1L, "ACTIVE");
+        hub.reported(1L, "ERROR");
+        hub.removed(1L);
+
+        List<String> statuses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DeviceStatusChange change = received.poll(1, TimeUnit.SECONDS);
+            assertNotNull("the status change should be pushed", change);
+            assertEquals("the change should be of the reported device", Long.valueOf(1L), change.id);
+            statuses.add(change.status);
+        }
+        assertEquals("ACTIVE,ERROR,INVALID", String.join(",", statuses));
+        assertEquals("an unchanged status should not be pushed", null, received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * TC2: test a subscriber that falls behind is completed
+     *
+     * input: a subscriber that never takes a change, with a buffer of two changes
+     * output: termination of the subscriber, and the drop counter
+     * oracle: the subscriber is completed, and counted as dropped
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCompletesSlowSubscriber() throws Exception {
+        DeviceStatusHub hub = new DeviceStatusHub(config(2), TimeUnit.HOURS.toMillis(1), materializer, metrics);
+        CompletionStage<Done> terminated = hub.subscribe()
+                .watchTermination(Keep.right())
+                .mapAsync(1, change -> new CompletableFuture<>())
+                .toMat(Sink.ignore(), Keep.left())
+                .run(materializer);
+
+        // the subscriber attaches asynchronously, so keep reporting new devices until it gives up
+        long deadline = System.currentTimeMillis() + 5000;
+        for (long deviceId = 1; !terminated.toCompletableFuture().isDone() && System.currentTimeMillis() < deadline; deviceId++) {
+            hub.reported(deviceId, "ACTIVE");
+            if (deviceId % 100 == 0) {
+                Thread.sleep(10);
+            }
+        }
+
+        terminated.toCompletableFuture().get(1, TimeUnit.SECONDS);
+        assertTrue("the subscriber should be counted as dropped",
+                metrics.scrape().contains("devicemonitor_status_push_dropped_total 1"));
+    }
+
+    /**
+     * TC3: test an unchanged status is pushed again once the heartbeat has passed
+     *
+     * input: a device reported active, then active again after a heartbeat of 50 millis
+     * output: the pushed status changes of the device
+     * oracle: active is pushed twice
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPushesHeartbeat() throws Exception {
+        DeviceStatusHub hub = new DeviceStatusHub(config(16), 50, materializer, metrics);
+        BlockingQueue<DeviceStatusChange> received = new LinkedBlockingQueue<>();
+        hub.subscribe().runWith(Sink.foreach(received::add), materializer);
+        awaitSubscribed(hub, received);
+
+        hub.reported(1L, "ACTIVE");
+        assertEquals("the status should be pushed", "ACTIVE", received.poll(1, TimeUnit.SECONDS).status);
+        Thread.sleep(100);
+        hub.reported(1L, "ACTIVE");
+        DeviceStatusChange heartbeat = received.poll(1, TimeUnit.SECONDS);
+        assertNotNull("the unchanged status should be pushed after the heartbeat", heartbeat);
+        assertEquals("the heartbeat should be of the reported device", Long.valueOf(1L), heartbeat.id);
+    }
+
+    /**
+     * Report a probe device until the subscriber receives it,
+     * then discard the probes
+     */
+    private static void awaitSubscribed(DeviceStatusHub hub, BlockingQueue<DeviceStatusChange> received) throws InterruptedException {
+        for (int i = 0; received.poll(10, TimeUnit.MILLISECONDS) == null; i++) {
+            hub.reported(PROBE_DEVICE, i % 2 == 0 ? "ACTIVE" : "ERROR");
+        }
+        Thread.sleep(50);
+        received.clear();
+    }
+
+    private static Config config(int subscriberBufferSize) {
+        Map<String, Object> config = new HashMap<>();
+        config.put("bufferSize", 16);
+        config.put("subscriberBufferSize", subscriberBufferSize);
+        return ConfigFactory.parseMap(config);
+    }
+}
@@ -0,0 +1,87 @@
+package jpa;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for DeviceStatusWrites
+ */
+public class DeviceStatusWritesUT {
+
+    /**
+     * TC1: test a recorded write is found since its update time
+     *
+     * input: a write of a device row at 500
+     * output: whether the device row has been written since 500 and since 600, and another device since 0
+     * oracle: only the device written is written since 500
+     */
+    @Test
+    public void testWrittenSince() {
+        DeviceStatusWrites writes = new DeviceStatusWrites(1000);
+
+        writes.written(1L, 500);
+
+        assertTrue("device should be written since its write", writes.writtenSince(1L, 500));
+        assertFalse("device should not be written since a later time", writes.writtenSince(1L, 600));
+        assertFalse("another device should not be written", writes.writtenSince(2L, 0));
+    }
+
+    /**
+     * TC2: test a forgotten write is not found
+     *
+     * input: a recorded write that is forgotten, e.g. when the device is removed
+     * output: whether the device row has been written since the write
+     * oracle: the device is not written
+     */
+    @Test
+    public void testForget() {
+        DeviceStatusWrites writes = new DeviceStatusWrites(1000);
+
+        writes.written(1L, 0);
+        writes.forget(1L);
+
+        assertFalse("forgotten device should not be written", writes.writtenSince(1L, 0));
+    }
+
+    /**
+     * TC3: test a write recorded out of order does not replace a later one
+     *
+     * input: a write at 500 recorded before a write at 0, e.g. by transactions committing out of order
+     * output: whether the device row has been written since 500
+     * oracle: the write at 500 is kept
+     */
+    @Test
+    public void testKeepsLaterWrite() {
+        DeviceStatusWrites writes = new DeviceStatusWrites(1000);
+
+        writes.written(1L, 500);
+        writes.written(1L, 0);
+
+        assertTrue("device should be written since the later write", writes.writtenSince(1L, 500));
+    }
+
+    /**
+     * TC4: test the recorded writes expire
+     *
+     * input: a recorded write, asked before and after a minute has passed on the ticker
+     * output: whether the device row has been written since the write
+     * oracle: the write is found within the minute, and forgotten afterwards
+     */
+    @Test
+    public void testExpiresAfterWrite() {
+        AtomicLong now = new AtomicLong();
+        DeviceStatusWrites writes = new DeviceStatusWrites(1000, now::get);
+
+        writes.written(1L, 0);
+        now.addAndGet(Duration.ofSeconds(59).toNanos());
+        assertTrue("write should be kept within the minute", writes.writtenSince(1L, 0));
+
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertFalse("write should expire", writes.writtenSince(1L, 0));
+    }
+}
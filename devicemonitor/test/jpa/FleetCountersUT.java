@@ -0,0 +1,127 @@
+package jpa;
+
+import jpa.models.Device;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test class for FleetCounters
+ */
+public class FleetCountersUT {
+
+    /**
+     * TC1: test the counters follow the devices added, reporting and removed
+     *
+     * input: two loaded devices of one customer, a device added for another customer,
+     * statuses reported by the devices, and a status reported by an unknown device and by a removed device,
+     * neither of which wrote a device row
+     * output: the summary of the fleet and of the first customer
+     * oracle: every device is counted once under its last status, the unknown and the removed devices are not counted
+     */
+    @Test
+    public void testCountsChanges() {
+        FleetCounters counters = new FleetCounters();
+        counters.load(device(1L, 10L, "ACTIVE"));
+        counters.load(device(2L, 10L, "ACTIVE"));
+        counters.loaded();
+
+        counters.added(device(3L, 20L, null));
+        counters.reported(1L, "ERROR", true);
+        counters.reported(1L, "ERROR", false);
+        counters.reported(3L, "ACTIVE", true);
+        counters.reported(4L, "ERROR", false);
+        counters.removed(2L);
+        counters.reported(2L, "ACTIVE", false);
+
+        FleetSummary fleet = counters.summary(null);
+        assertEquals("two devices should be counted", 2, fleet.total);
+        assertEquals("one device should be active", Long.valueOf(1L), fleet.statuses.get("ACTIVE"));
+        assertEquals("one device should be failing", Long.valueOf(1L), fleet.statuses.get("ERROR"));
+        assertNull("no device should be left unknown", fleet.statuses.get(FleetCounters.UNKNOWN));
+        assertEquals("the second customer should have its active device", Collections.singletonMap("ACTIVE", 1L), fleet.customers.get(20L));
+
+        FleetSummary customer = counters.summary(10L);
+        assertEquals("the first customer should have one device", 1, customer.total);
+        assertEquals("the first customer should have its failing device", Collections.singletonMap("ERROR", 1L), customer.statuses);
+    }
+
+    /**
+     * TC2: test the changes counted while loading win over the devices read from db
+     *
+     * input: a device reporting and a device removed while loading, then the stale rows of both read from db
+     * output: the summary once loaded
+     * oracle: the device is counted under its reported status, the removed device is not counted
+     */
+    @Test
+    public void testLoadKeepsChanges() {
+        FleetCounters counters = new FleetCounters();
+        counters.load(device(1L, 10L, "ACTIVE"));
+        counters.reported(1L, "ERROR", true);
+        counters.removed(2L);
+        counters.load(device(1L, 10L, "ACTIVE"));
+        counters.load(device(2L, 10L, "ACTIVE"));
+        counters.loaded();
+
+        FleetSummary fleet = counters.summary(null);
+        assertEquals("one device should be counted", 1, fleet.total);
+        assertEquals("the device should be failing", Collections.singletonMap("ERROR", 1L), fleet.statuses);
+    }
+
+    /**
+     * TC3: test a removed device that reports again is counted again
+     *
+     * input: a loaded device that is removed, then reports a status that writes its row
+     * output: the summary of the fleet and of the customer
+     * oracle: the device is counted under the reported status, for its customer
+     */
+    @Test
+    public void testCountsRevivedDevice() {
+        FleetCounters counters = new FleetCounters();
+        counters.load(device(1L, 10L, "ACTIVE"));
+        counters.loaded();
+
+        counters.removed(1L);
+        assertEquals("the removed device should not be counted", 0, counters.summary(null).total);
+        counters.reported(1L, "ERROR", true);
+
+        FleetSummary fleet = counters.summary(null);
+        assertEquals("the device should be counted again", 1, fleet.total);
+        assertEquals("the device should be failing", Collections.singletonMap("ERROR", 1L), fleet.statuses);
+        assertEquals("the device should be counted for its customer", Collections.singletonMap("ERROR", 1L), counters.summary(10L).statuses);
+    }
+
+    /**
+     * TC4: test a device reporting before it is read from db is counted under the reported status
+     *
+     * input: a device not counted yet that reports a status writing its row, then its stale row read from db
+     * output: the summary of the fleet and of the customer, before and after the row is read
+     * oracle: the device is counted once under the reported status, for its customer once the row is read
+     */
+    @Test
+    public void testLoadPlacesReportedDevice() {
+        FleetCounters counters = new FleetCounters();
+        counters.reported(1L, "ERROR", true);
+        assertEquals("the device should be counted", Collections.singletonMap("ERROR", 1L), counters.summary(null).statuses);
+        assertEquals("the customer should not be known yet", 0, counters.summary(10L).total);
+
+        counters.load(device(1L, 10L, "ACTIVE"));
+        counters.loaded();
+
+        FleetSummary fleet = counters.summary(null);
+        assertEquals("the device should be counted once", 1, fleet.total);
+        assertEquals("the reported status should win", Collections.singletonMap("ERROR", 1L), fleet.statuses);
+        assertEquals("the device should be counted for its customer", Collections.singletonMap("ERROR", 1L), counters.summary(10L).statuses);
+    }
+
+    private static Device device(Long id, Long customerId, String status) {
+        Device device = new Device();
+        device.id = id;
+        device.customerId = customerId;
+        device.status = status;
+        return device;
+    }
+}
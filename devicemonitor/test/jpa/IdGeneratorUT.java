@@ -0,0 +1,94 @@
+package jpa;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for IdGenerator
+ */
+public class IdGeneratorUT {
+
+    /**
+     * TC1: test ids of one node keep increasing and carry the node id
+     *
+     * input: ids generated in a row by node 5
+     * output: the generated ids
+     * oracle: every id is greater than the previous one, and has node id 5
+     */
+    @Test
+    public void testIncreasingIdsOfNode() {
+        IdGenerator generator = new IdGenerator(5);
+
+        long previous = 0;
+        for (int i = 0; i < 10000; i++) {
+            long id = generator.nextId();
+            assertTrue("id should keep increasing", id > previous);
+            assertEquals("id should carry the node id", 5, id >>> IdGenerator.SEQUENCE_BITS & IdGenerator.MAX_NODE_ID);
+            previous = id;
+        }
+    }
+
+    /**
+     * TC2: test ids are unique when generated concurrently
+     *
+     * input: ids generated by eight threads at the same time
+     * output: the generated ids
+     * oracle: no id is generated twice
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUniqueIdsUnderConcurrency() throws Exception {
+        IdGenerator generator = new IdGenerator(1);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int idsPerThread = 20000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < idsPerThread; i++) {
+                    ids.add(generator.nextId());
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue("threads should finish", executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals("every generated id should be unique", threads * idsPerThread, ids.size());
+    }
+
+    /**
+     * TC3: test the node id defaults to 0 for a single node only
+     *
+     * input: configurations with a node id, without a node id for one node, and without a node id for three nodes
+     * output: the node id read, or the error
+     * oracle: the configured node id, 0 for the single node, and IllegalStateException for three nodes
+     */
+    @Test
+    public void testNodeIdRequiredForSeveralNodes() {
+        assertEquals("configured node id should be read", 7, IdGenerator.nodeId(ConfigFactory.parseString("nodeId = 7, nodes = 3")));
+        assertEquals("single node should take node id 0", 0, IdGenerator.nodeId(ConfigFactory.parseString("nodes = 1")));
+        try {
+            IdGenerator.nodeId(ConfigFactory.parseString("nodes = 3"));
+            fail("several nodes without a node id should fail");
+        } catch (IllegalStateException e) {
+            assertTrue("error should name the setting", e.getMessage().contains("idGenerator.nodeId"));
+        }
+    }
+}
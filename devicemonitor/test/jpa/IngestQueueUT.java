@@ -0,0 +1,178 @@
+package jpa;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import jpa.models.DeviceLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for IngestQueue
+ */
+public class IngestQueueUT {
+
+    private ActorSystem system;
+    private Materializer materializer;
+
+    @Before
+    public void setUp() {
+        system = ActorSystem.create();
+        materializer = Materializer.matFromSystem(system);
+    }
+
+    @After
+    public void tearDown() {
+        system.terminate();
+    }
+
+    /**
+     * TC1: test the buffered logs are persisted in batches before they are acknowledged
+     *
+     * input: three device logs, with a batch size of two and durable ack
+     * output: the acknowledged device logs
+     * oracle: all logs are acknowledged, and persisted in batches of at most two logs
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFlushesInBatches() throws Exception {
+        List<List<DeviceLog>> batches = new CopyOnWriteArrayList<>();
+        IngestQueue queue = new IngestQueue(config(100, 2, "durable"), materializer, logs -> {
+            batches.add(logs);
+            return completedFuture(logs);
+        });
+
+        List<CompletableFuture<DeviceLog>> acks = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            acks.add(queue.offer(deviceLog(id)).toCompletableFuture());
+        }
+
+        for (CompletableFuture<DeviceLog> ack : acks) {
+            ack.get(1, TimeUnit.SECONDS);
+        }
+        assertEquals("all logs should be persisted", 3, batches.stream().mapToInt(List::size).sum());
+        assertTrue("no batch should exceed the batch size", batches.stream().allMatch(batch -> batch.size() <= 2));
+    }
+
+    /**
+     * TC2: test logs are rejected when the buffer is full
+     *
+     * input: more device logs than the buffer holds, while the db does not complete the flush
+     * output: the acknowledgements of the device logs
+     * oracle: the logs beyond the buffer are rejected with a retry hint
+     */
+    @Test
+    public void testRejectsWhenFull() {
+        IngestQueue queue = new IngestQueue(config(1, 1, "accepted"), materializer, logs -> new CompletableFuture<List<DeviceLog>>());
+
+        List<CompletionStage<DeviceLog>> acks = new ArrayList<>();
+        for (long id = 1; id <= 10; id++) {
+            acks.add(queue.offer(deviceLog(id)));
+        }
+
+        long rejected = acks.stream().filter(ack -> {
+            try {
+                ack.toCompletableFuture().get(1, TimeUnit.SECONDS);
+                return false;
+            } catch (Exception e) {
+                return e.getCause() instanceof IngestRejectedException
+                        || e.getCause() instanceof CompletionException && e.getCause().getCause() instanceof IngestRejectedException;
+            }
+        }).count();
+        assertTrue("logs beyond the buffer should be rejected", rejected > 0);
+    }
+
+    /**
+     * TC3: test a batch that fails is persisted again log by log, and the queue keeps taking logs
+     *
+     * input: a batch of three device logs, where the flush throws for any batch holding the second log,
+     *        then a fourth device log, with durable ack
+     * output: the acknowledgements of the device logs
+     * oracle: only the second log fails, the other logs of its batch and the later log are persisted
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRetriesFailedBatchLogByLog() throws Exception {
+        IngestQueue queue = new IngestQueue(config(100, 3, "durable"), materializer, logs -> {
+            if (logs.stream().anyMatch(log -> log.id == 2L)) {
+                throw new IllegalStateException("bad log");
+            }
+            return completedFuture(logs);
+        });
+
+        List<CompletableFuture<DeviceLog>> acks = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            acks.add(queue.offer(deviceLog(id)).toCompletableFuture());
+        }
+
+        assertEquals("first log should be persisted", Long.valueOf(1L), acks.get(0).get(1, TimeUnit.SECONDS).id);
+        assertEquals("third log should be persisted", Long.valueOf(3L), acks.get(2).get(1, TimeUnit.SECONDS).id);
+        try {
+            acks.get(1).get(1, TimeUnit.SECONDS);
+            fail("second log should fail");
+        } catch (ExecutionException e) {
+            assertTrue("second log should fail with the flush error", e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("later log should be persisted", Long.valueOf(4L), queue.offer(deviceLog(4L)).toCompletableFuture().get(1, TimeUnit.SECONDS).id);
+    }
+
+    /**
+     * TC4: test a log without device id is rejected before it is buffered
+     *
+     * input: a device log without device id
+     * output: the acknowledgement of the device log
+     * oracle: the log is rejected with IllegalArgumentException, and never flushed
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRejectsInvalidLog() throws Exception {
+        List<List<DeviceLog>> batches = new CopyOnWriteArrayList<>();
+        IngestQueue queue = new IngestQueue(config(100, 1, "accepted"), materializer, logs -> {
+            batches.add(logs);
+            return completedFuture(logs);
+        });
+
+        DeviceLog log = deviceLog(1L);
+        log.deviceId = null;
+        try {
+            queue.offer(log).toCompletableFuture().get(1, TimeUnit.SECONDS);
+            fail("log without device id should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue("log should be rejected as invalid", e.getCause() instanceof IllegalArgumentException);
+        }
+        assertTrue("log should not be flushed", batches.isEmpty());
+    }
+
+    private Config config(int bufferSize, int batchSize, String ack) {
+        return ConfigFactory.parseString("bufferSize = " + bufferSize + ", batchSize = " + batchSize
+                + ", flushInterval = 50ms, ack = " + ack + ", retryAfter = 1s");
+    }
+
+    private DeviceLog deviceLog(Long id) {
+        DeviceLog log = new DeviceLog();
+        log.id = id;
+        log.deviceId = 1L;
+        log.status = "ACTIVE";
+        log.updateAt = System.currentTimeMillis();
+        return log;
+    }
+}
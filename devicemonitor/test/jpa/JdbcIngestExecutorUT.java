@@ -0,0 +1,201 @@
+package jpa;
+
+import jpa.models.Device;
+import jpa.models.DeviceLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test class for JdbcIngestExecutor, against the jpa path of SqlExecutor,
+ * each on its own embedded H2 database
+ */
+public class JdbcIngestExecutorUT {
+
+    private static final int DEVICES = 3;
+
+    private Database jpaDatabase;
+    private Database jdbcDatabase;
+    private EntityManagerFactory jpaEmf;
+    private EntityManagerFactory jdbcEmf;
+
+    @Before
+    public void setUp() {
+        jpaDatabase = database("ingest_jpa");
+        jdbcDatabase = database("ingest_jdbc");
+        jpaEmf = entityManagerFactory(jpaDatabase);
+        jdbcEmf = entityManagerFactory(jdbcDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        jpaEmf.close();
+        jdbcEmf.close();
+        jpaDatabase.shutdown();
+        jdbcDatabase.shutdown();
+    }
+
+    /**
+     * TC1: test the jdbc path writes the same rows as the jpa path
+     *
+     * input: a batch of logs, with two logs of the same device, then a single log with a changed status
+     * output: the device statuses and the device log rows of both databases
+     * oracle: both databases hold the same device statuses, the last reported ones, and the same logs
+     */
+    @Test
+    public void testWritesSameRowsAsJpa() {
+        SqlExecutor sqlExecutor = new SqlExecutor(new IdGenerator(0), new DeviceStatusWrites(60000), false);
+        JdbcIngestExecutor jdbcIngest = new JdbcIngestExecutor(new DeviceStatusWrites(60000));
+
+        List<DeviceLog> batch = Arrays.asList(log(1, 1L, "ERROR", "disk full"), log(2, 2L, "ACTIVE", ""), log(3, 1L, "INACTIVE", null));
+        withTransaction(jpaEmf, em -> sqlExecutor.updateDeviceLogs(em, batch));
+        jdbcIngest.updateDeviceLogs(jdbcDatabase, jdbcEmf, batch);
+
+        DeviceLog single = log(4, 3L, "ERROR", "overheated");
+        withTransaction(jpaEmf, em -> sqlExecutor.updateDeviceLog(em, single));
+        jdbcIngest.updateDeviceLogs(jdbcDatabase, jdbcEmf, Collections.singletonList(single));
+
+        assertEquals("devices should have the last reported status",
+                Arrays.asList("1 INACTIVE", "2 ACTIVE", "3 ERROR"), select(jdbcDatabase, "select id, status from device order by id"));
+        assertEquals("devices should be the same as with jpa",
+                select(jpaDatabase, "select id, status from device order by id"), select(jdbcDatabase, "select id, status from device order by id"));
+
+        String logs = "select id, device_id, status, execution_hours, error, update_at from device_log order by id";
+        assertEquals("logs should be the same as with jpa", select(jpaDatabase, logs), select(jdbcDatabase, logs));
+        assertEquals("every log should be inserted", 4, select(jdbcDatabase, logs).size());
+    }
+
+    /**
+     * TC2: test a device written by the jdbc path is not read stale from the second level cache
+     *
+     * input: a device read into the second level cache, then a log with a changed status written with jdbc
+     * output: the device read again through the entity manager
+     * oracle: the device has the status of the log
+     */
+    @Test
+    public void testEvictsWrittenDevice() {
+        JdbcIngestExecutor jdbcIngest = new JdbcIngestExecutor(new DeviceStatusWrites(60000));
+
+        assertEquals("device should be read with its seeded status",
+                "ACTIVE", withTransaction(jdbcEmf, em -> em.find(Device.class, 1L).status));
+        jdbcIngest.updateDeviceLogs(jdbcDatabase, jdbcEmf, Collections.singletonList(log(1, 1L, "ERROR", "disk full")));
+
+        assertEquals("device should be read with the reported status",
+                "ERROR", withTransaction(jdbcEmf, em -> em.find(Device.class, 1L).status));
+    }
+
+    /**
+     * TC3: test the database decides whether the device row is written, whichever node wrote it before
+     *
+     * input: on one database, a status written by a node, another status by a second node, the first
+     *        status again by the first node, then the same status again by the second node
+     * output: the device row after each write
+     * oracle: every changed status is written, also the one the first node has written before,
+     *         and the unchanged status within the heartbeat keeps the update time
+     */
+    @Test
+    public void testDatabaseDecidesWrite() {
+        JdbcIngestExecutor node1 = new JdbcIngestExecutor(new DeviceStatusWrites(60000));
+        JdbcIngestExecutor node2 = new JdbcIngestExecutor(new DeviceStatusWrites(60000));
+        String device = "select status from device where id = 1";
+
+        node1.updateDeviceLogs(jdbcDatabase, jdbcEmf, Collections.singletonList(log(1, 1L, "ERROR", "disk full")));
+        node2.updateDeviceLogs(jdbcDatabase, jdbcEmf, Collections.singletonList(log(2, 1L, "ACTIVE", "")));
+        assertEquals("status of the second node should be written", Collections.singletonList("ACTIVE"), select(jdbcDatabase, device));
+
+        node1.updateDeviceLogs(jdbcDatabase, jdbcEmf, Collections.singletonList(log(3, 1L, "ERROR", "disk full")));
+        assertEquals("status written before by the first node should be written again",
+                Collections.singletonList("ERROR"), select(jdbcDatabase, device));
+
+        List<String> updateAt = select(jdbcDatabase, "select update_at from device where id = 1");
+        node2.updateDeviceLogs(jdbcDatabase, jdbcEmf, Collections.singletonList(log(4, 1L, "ERROR", "disk full")));
+        assertEquals("unchanged status should keep the update time", updateAt, select(jdbcDatabase, "select update_at from device where id = 1"));
+    }
+
+    private static Database database(String name) {
+        Database database = Databases.inMemory(name, Collections.singletonMap("MODE", "MySQL"), Collections.emptyMap());
+        Evolutions.applyEvolutions(database, new ShardEvolutionsReader(JdbcIngestExecutorUT.class.getClassLoader()));
+        database.withConnection(connection -> {
+            try (PreparedStatement customer = connection.prepareStatement("insert into customer (id, name) values (1, 'customer')");
+                 PreparedStatement device = connection.prepareStatement(
+                         "insert into device (id, description, customer_id, update_at, status) values (?, ?, 1, 0, 'ACTIVE')")) {
+                customer.executeUpdate();
+                for (long id = 1; id <= DEVICES; id++) {
+                    device.setLong(1, id);
+                    device.setString(2, "device " + id);
+                    device.executeUpdate();
+                }
+            }
+        });
+        return database;
+    }
+
+    private static EntityManagerFactory entityManagerFactory(Database database) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("javax.persistence.nonJtaDataSource", database.getDataSource());
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.cache.region_prefix", database.getName());
+        return Persistence.createEntityManagerFactory("shardPersistenceUnit", properties);
+    }
+
+    private static <T> T withTransaction(EntityManagerFactory emf, Function<EntityManager, T> function) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            T result = function.apply(em);
+            tx.commit();
+            return result;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static List<String> select(Database database, String sql) {
+        return database.withConnection(connection -> {
+            List<String> rows = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(sql);
+                 ResultSet result = statement.executeQuery()) {
+                int columns = result.getMetaData().getColumnCount();
+                while (result.next()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columns; i++) {
+                        row.append(i > 1 ? " " : "").append(result.getString(i));
+                    }
+                    rows.add(row.toString());
+                }
+            }
+            return rows;
+        });
+    }
+
+    private static DeviceLog log(long id, Long deviceId, String status, String error) {
+        DeviceLog log = new DeviceLog();
+        log.id = id;
+        log.deviceId = deviceId;
+        log.status = status;
+        log.executionHours = (int) id;
+        log.error = error;
+        log.updateAt = 1000 * id;
+        return log;
+    }
+}
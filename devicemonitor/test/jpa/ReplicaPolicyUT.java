@@ -0,0 +1,73 @@
+package jpa;
+
+import org.junit.Test;
+
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for ReplicaPolicy
+ */
+public class ReplicaPolicyUT {
+
+    /**
+     * TC1: test reads go to the primary within the window after a write in read-your-writes consistency
+     *
+     * input: writes of a device and of the device list, followed by reads within and after the window
+     * output: whether each read can be served by the replica
+     * oracle: assert reads within the window go to the primary, and other reads to the replica
+     */
+    @Test
+    public void testReadYourWrites() {
+        ReplicaPolicy policy = new ReplicaPolicy(ReplicaPolicy.READ_YOUR_WRITES, 5000, 100);
+        assertTrue("device without writes should be read from the replica", policy.readDevice(1L, 10000));
+
+        policy.deviceWritten(1L, 10000);
+        assertFalse("device just written should be read from the primary", policy.readDevice(1L, 12000));
+        assertTrue("other devices should be read from the replica", policy.readDevice(2L, 12000));
+        assertTrue("device written before the window should be read from the replica", policy.readDevice(1L, 15000));
+
+        policy.devicesWritten(20000);
+        assertFalse("devices just added should be listed from the primary", policy.readDevices(21000));
+        assertTrue("customers should be listed from the replica", policy.readCustomers(21000));
+        assertTrue("devices should be listed from the replica after the window", policy.readDevices(25000));
+    }
+
+    /**
+     * TC2: test reads always go to the replica in eventual consistency
+     *
+     * input: writes of a device and of the customer list, followed by reads right away
+     * output: whether each read can be served by the replica
+     * oracle: assert all reads go to the replica
+     */
+    @Test
+    public void testEventual() {
+        ReplicaPolicy policy = new ReplicaPolicy(ReplicaPolicy.EVENTUAL, 5000, 100);
+        policy.deviceWritten(1L, 10000);
+        policy.customersWritten(10000);
+
+        assertTrue("device should be read from the replica", policy.readDevice(1L, 10001));
+        assertTrue("customers should be listed from the replica", policy.readCustomers(10001));
+    }
+
+    /**
+     * TC3: test the tracked device writes are bounded
+     *
+     * input: writes of ten thousand devices within the window, with at most 100 tracked devices
+     * output: the number of devices still read from the primary
+     * oracle: assert at most 100 devices are tracked
+     */
+    @Test
+    public void testBoundsTrackedDevices() {
+        ReplicaPolicy policy = new ReplicaPolicy(ReplicaPolicy.READ_YOUR_WRITES, 60000, 100);
+        long now = System.currentTimeMillis();
+        for (long deviceId = 1; deviceId <= 10000; deviceId++) {
+            policy.deviceWritten(deviceId, now);
+        }
+
+        long tracked = LongStream.rangeClosed(1, 10000).filter(deviceId -> !policy.readDevice(deviceId, now)).count();
+        assertTrue("at most 100 devices should be tracked, but were " + tracked, tracked <= 100);
+    }
+}
@@ -0,0 +1,61 @@
+package jpa;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for ShardRing
+ */
+public class ShardRingUT {
+
+    private static final int DEVICES = 100000;
+
+    /**
+     * TC1: test devices are spread evenly over the shards
+     *
+     * input: a ring of 4 shards, and sequential device ids
+     * output: number of devices per shard
+     * oracle: assert every shard holds between 15% and 35% of the devices
+     */
+    @Test
+    public void testSpread() {
+        ShardRing ring = new ShardRing(Arrays.asList("shard0", "shard1", "shard2", "shard3"), 160);
+        Map<String, Integer> devices = new HashMap<>();
+        for (long id = 0; id < DEVICES; id++) {
+            devices.merge(ring.shardOf(id), 1, Integer::sum);
+        }
+
+        assertEquals("all shards should hold devices", 4, devices.size());
+        devices.forEach((shard, count) -> assertTrue(shard + " holds " + count + " devices",
+                count > DEVICES * 0.15 && count < DEVICES * 0.35));
+    }
+
+    /**
+     * TC2: test adding a shard only moves devices onto the new shard
+     *
+     * input: a ring of 3 shards, and the same ring with a 4th shard
+     * output: the shard of each device in both rings
+     * oracle: assert moved devices all go to the new shard, and about a quarter of the devices move
+     */
+    @Test
+    public void testAddShard() {
+        ShardRing before = new ShardRing(Arrays.asList("shard0", "shard1", "shard2"), 160);
+        ShardRing after = new ShardRing(Arrays.asList("shard0", "shard1", "shard2", "shard3"), 160);
+
+        int moved = 0;
+        for (long id = 0; id < DEVICES; id++) {
+            if (!before.shardOf(id).equals(after.shardOf(id))) {
+                assertEquals("devices should only move to the new shard", "shard3", after.shardOf(id));
+                moved++;
+            }
+        }
+        assertTrue("about a quarter of the devices should move, but " + moved + " moved",
+                moved > DEVICES * 0.15 && moved < DEVICES * 0.35);
+    }
+}
@@ -0,0 +1,63 @@
+package metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.DBApi;
+import play.db.Database;
+import play.db.Databases;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test class for HikariMetrics, with two embedded H2 databases
+ */
+public class HikariMetricsUT {
+
+    private Database primary;
+    private Database replica;
+
+    @Before
+    public void setUp() {
+        primary = Databases.inMemory("default", Collections.emptyMap(), Collections.emptyMap());
+        replica = Databases.inMemory("replica", Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    @After
+    public void tearDown() {
+        primary.shutdown();
+        replica.shutdown();
+    }
+
+    /**
+     * TC1: test the pool of every database is tracked under its own name
+     *
+     * input: a default and a replica database, a connection borrowed from each
+     * output: the metrics in text
+     * oracle: assert the usage gauges and the acquire time are rendered for both pools
+     */
+    @Test
+    public void testTracksEveryPool() {
+        DBApi dbApi = mock(DBApi.class);
+        when(dbApi.getDatabases()).thenReturn(Arrays.asList(primary, replica));
+        MetricsRegistry metrics = new MetricsRegistry();
+        new HikariMetrics(dbApi, metrics);
+
+        primary.withConnection(connection -> { });
+        replica.withConnection(connection -> { });
+
+        String text = metrics.scrape();
+        for (String pool : new String[]{"default", "replica"}) {
+            assertThat(text, containsString("devicemonitor_pool_max_connections{pool=\"" + pool + "\"} "));
+            assertThat(text, containsString("devicemonitor_pool_active_connections{pool=\"" + pool + "\"} 0\n"));
+            assertThat(text, containsString("devicemonitor_pool_timeouts_total{pool=\"" + pool + "\"} 0\n"));
+            assertThat(text, containsString("devicemonitor_pool_acquire_seconds_count{pool=\"" + pool + "\"} 1\n"));
+        }
+    }
+}
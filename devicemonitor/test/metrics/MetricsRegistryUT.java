@@ -0,0 +1,57 @@
+package metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit test class for MetricsRegistry
+ */
+public class MetricsRegistryUT {
+
+    /**
+     * TC1: test histograms are rendered as cumulative Prometheus buckets
+     *
+     * input: two latencies recorded for one action
+     * output: the metrics in text
+     * oracle: assert the buckets, sum and count of the action
+     */
+    @Test
+    public void testHistogram() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        LatencyHistogram histogram = metrics.histogram("action_duration_seconds", "Latency of the actions", "action", "DeviceController.checkDevice");
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(40));
+
+        String text = metrics.scrape();
+        assertThat(text, containsString("# TYPE devicemonitor_action_duration_seconds histogram\n"));
+        assertThat(text, containsString("devicemonitor_action_duration_seconds_bucket{action=\"DeviceController.checkDevice\",le=\"0.001\"} 0\n"));
+        assertThat(text, containsString("devicemonitor_action_duration_seconds_bucket{action=\"DeviceController.checkDevice\",le=\"0.0025\"} 1\n"));
+        assertThat(text, containsString("devicemonitor_action_duration_seconds_bucket{action=\"DeviceController.checkDevice\",le=\"0.05\"} 2\n"));
+        assertThat(text, containsString("devicemonitor_action_duration_seconds_bucket{action=\"DeviceController.checkDevice\",le=\"+Inf\"} 2\n"));
+        assertThat(text, containsString("devicemonitor_action_duration_seconds_sum{action=\"DeviceController.checkDevice\"} 0.042\n"));
+        assertThat(text, containsString("devicemonitor_action_duration_seconds_count{action=\"DeviceController.checkDevice\"} 2\n"));
+    }
+
+    /**
+     * TC2: test gauges are read when the metrics are rendered
+     *
+     * input: a gauge whose value changes after registration
+     * output: the metrics in text
+     * oracle: assert the current value of the gauge is rendered
+     */
+    @Test
+    public void testGauge() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        int[] queued = {1};
+        metrics.gauge("dispatcher_queued_tasks", "Tasks waiting", () -> queued[0]);
+        queued[0] = 5;
+
+        String text = metrics.scrape();
+        assertThat(text, containsString("# TYPE devicemonitor_dispatcher_queued_tasks gauge\n"));
+        assertThat(text, containsString("devicemonitor_dispatcher_queued_tasks 5\n"));
+    }
+}